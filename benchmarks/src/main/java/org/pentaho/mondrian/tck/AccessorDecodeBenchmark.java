@@ -0,0 +1,318 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Measures how fast the driver decodes values of each kind of column with
+ * each of the ResultSet accessors, by streaming wide FoodMart tables.
+ * Mondrian loads segments with typed accessors, and a driver can be much
+ * slower on some of them than on others.
+ *
+ * <p>Each run scans only the columns of the table of one kind, and calls
+ * the accessor on every value. The "none" accessor scans the same columns
+ * without reading them, which is the baseline to subtract. Besides the
+ * scans per second, JMH reports the values read per second.
+ *
+ * <p>Columns are classified by their JDBC type: DECIMAL and NUMERIC
+ * columns without a scale count as integers, as FoodMart's identifiers do
+ * on databases that store them as NUMERIC. There is one benchmark per kind
+ * of column, each with its own state, whose parameters only list the
+ * FoodMart tables that have columns of that kind and the accessors that
+ * apply to them: getLong only to integers, getDouble and getBigDecimal to
+ * integers and decimals.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 2 )
+public class AccessorDecodeBenchmark {
+
+  enum Accessor {
+    NONE( "none" ) {
+      @Override
+      long read( ResultSet rs, int column ) {
+        return 0;
+      }
+    },
+    GET_OBJECT( "getObject" ) {
+      @Override
+      long read( ResultSet rs, int column ) throws SQLException {
+        return rs.getObject( column ) == null ? 0 : 1;
+      }
+    },
+    GET_STRING( "getString" ) {
+      @Override
+      long read( ResultSet rs, int column ) throws SQLException {
+        final String value = rs.getString( column );
+        return value == null ? 0 : value.length();
+      }
+    },
+    GET_LONG( "getLong" ) {
+      @Override
+      long read( ResultSet rs, int column ) throws SQLException {
+        return rs.getLong( column );
+      }
+    },
+    GET_DOUBLE( "getDouble" ) {
+      @Override
+      long read( ResultSet rs, int column ) throws SQLException {
+        return Double.doubleToRawLongBits( rs.getDouble( column ) );
+      }
+    },
+    GET_BIG_DECIMAL( "getBigDecimal" ) {
+      @Override
+      long read( ResultSet rs, int column ) throws SQLException {
+        final BigDecimal value = rs.getBigDecimal( column );
+        return value == null ? 0 : value.signum();
+      }
+    },
+    WAS_NULL( "wasNull" ) {
+      /**
+       * Reads the value first, since wasNull reports on the last value
+       * read. Subtract the getObject scan to get the cost of wasNull.
+       */
+      @Override
+      long read( ResultSet rs, int column ) throws SQLException {
+        rs.getObject( column );
+        return rs.wasNull() ? 1 : 0;
+      }
+    };
+
+    final String methodName;
+
+    Accessor( String methodName ) {
+      this.methodName = methodName;
+    }
+
+    abstract long read( ResultSet rs, int column ) throws SQLException;
+
+    static Accessor forMethod( String methodName ) {
+      for ( Accessor accessor : values() ) {
+        if ( accessor.methodName.equals( methodName ) ) {
+          return accessor;
+        }
+      }
+      throw new IllegalArgumentException( "Unknown accessor: " + methodName );
+    }
+  }
+
+  /**
+   * Counts the values read, so that JMH reports them per second.
+   */
+  @State( Scope.Thread )
+  @AuxCounters( AuxCounters.Type.OPERATIONS )
+  public static class Values {
+    public long values;
+
+    @Setup( Level.Iteration )
+    public void reset() {
+      values = 0;
+    }
+  }
+
+  /**
+   * The columns of one kind of a table, and the accessor to read them with.
+   * Subclasses declare the tables and accessors that apply to their kind.
+   */
+  public abstract static class Columns {
+    private SqlContext context;
+    private Accessor read;
+    private String query;
+    private int columnCount;
+
+    void open( String table, String columnKind, String accessor ) throws Exception {
+      read = Accessor.forMethod( accessor );
+      context = SqlContext.defaultContext();
+      final List<String> columns = new ArrayList<>();
+      try ( Statement statement = context.connection.createStatement();
+            ResultSet rs = statement.executeQuery( "select * from " + table + " where 1 = 0" ) ) {
+        final ResultSetMetaData metaData = rs.getMetaData();
+        for ( int j = 1; j <= metaData.getColumnCount(); j++ ) {
+          if ( columnKind.equals( columnKind( metaData.getColumnType( j ), metaData.getScale( j ) ) ) ) {
+            columns.add( metaData.getColumnName( j ) );
+          }
+        }
+      }
+      if ( columns.isEmpty() ) {
+        context.dispose();
+        throw new IllegalStateException( table + " has no " + columnKind + " column." );
+      }
+      query = "select " + Joiner.on( ", " ).join( columns ) + " from " + table;
+      columnCount = columns.size();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+      context.dispose();
+    }
+
+    long scan( Values values ) throws Exception {
+      long check = 0;
+      try ( Statement statement = context.connection.createStatement();
+            ResultSet rs = statement.executeQuery( query ) ) {
+        while ( rs.next() ) {
+          for ( int j = 1; j <= columnCount; j++ ) {
+            check += read.read( rs, j );
+          }
+          values.values += columnCount;
+        }
+      }
+      return check;
+    }
+  }
+
+  @State( Scope.Benchmark )
+  public static class IntegerColumns extends Columns {
+    @Param( { "sales_fact_1997", "customer", "product" } )
+    public String table;
+
+    @Param( { "none", "getObject", "getString", "getLong", "getDouble", "getBigDecimal", "wasNull" } )
+    public String accessor;
+
+    @Setup
+    public void setUp() throws Exception {
+      open( table, "integer", accessor );
+    }
+  }
+
+  @State( Scope.Benchmark )
+  public static class DecimalColumns extends Columns {
+    @Param( { "sales_fact_1997", "product" } )
+    public String table;
+
+    @Param( { "none", "getObject", "getString", "getDouble", "getBigDecimal", "wasNull" } )
+    public String accessor;
+
+    @Setup
+    public void setUp() throws Exception {
+      open( table, "decimal", accessor );
+    }
+  }
+
+  @State( Scope.Benchmark )
+  public static class TextColumns extends Columns {
+    @Param( { "customer", "product" } )
+    public String table;
+
+    @Param( { "none", "getObject", "getString", "wasNull" } )
+    public String accessor;
+
+    @Setup
+    public void setUp() throws Exception {
+      open( table, "text", accessor );
+    }
+  }
+
+  @State( Scope.Benchmark )
+  public static class TemporalColumns extends Columns {
+    @Param( { "customer" } )
+    public String table;
+
+    @Param( { "none", "getObject", "getString", "wasNull" } )
+    public String accessor;
+
+    @Setup
+    public void setUp() throws Exception {
+      open( table, "temporal", accessor );
+    }
+  }
+
+  /**
+   * Returns the kind of a column of the given JDBC type and scale.
+   */
+  static String columnKind( int type, int scale ) {
+    switch ( type ) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return "integer";
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return scale == 0 ? "integer" : "decimal";
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return "decimal";
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+        return "text";
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return "temporal";
+      default:
+        return "other";
+    }
+  }
+
+  @Benchmark
+  public long integers( IntegerColumns columns, Values values ) throws Exception {
+    return columns.scan( values );
+  }
+
+  @Benchmark
+  public long decimals( DecimalColumns columns, Values values ) throws Exception {
+    return columns.scan( values );
+  }
+
+  @Benchmark
+  public long text( TextColumns columns, Values values ) throws Exception {
+    return columns.scan( values );
+  }
+
+  @Benchmark
+  public long temporal( TemporalColumns columns, Values values ) throws Exception {
+    return columns.scan( values );
+  }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the queries of {@link AggregationTest}, for each aggregator,
+ * through Mondrian and directly against the database.
+ *
+ * <p>The Mondrian benchmark runs with a warm and a fresh cache, as set by
+ * {@link FreshCache}; the SQL benchmark runs once per aggregator.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 2 )
+public class AggregationBenchmark {
+
+  @Param( { "sum", "min", "max", "count" } )
+  public String aggregator;
+
+  private MondrianContext mondrianContext;
+  private MondrianExpectation warmExpectation;
+  private MondrianExpectation freshExpectation;
+  private SqlExpectation sqlExpectation;
+
+  @Setup
+  public void setUp() throws Exception {
+    final String expected;
+    switch ( aggregator ) {
+      case "sum":
+        expected = "266,773";
+        break;
+      case "min":
+        expected = "1";
+        break;
+      case "max":
+        expected = "6";
+        break;
+      case "count":
+        expected = "86,837";
+        break;
+      default:
+        throw new IllegalArgumentException( "Unknown aggregator: " + aggregator );
+    }
+
+    mondrianContext =
+        MondrianContext.lease(
+          FoodMartCatalogs.FLAT_WITH_CUSTOMER.replace(
+            "aggregator=\"sum\"", "aggregator=\"" + aggregator + "\"" ) );
+    final MondrianExpectation.Builder builder = MondrianExpectation.newBuilder()
+        .query( AggregationTest.QUERY )
+        .result(
+          "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[Measures].[Unit Sales]}\n"
+            + "Row #0: " + expected + "\n" );
+    warmExpectation = builder.build();
+    freshExpectation = builder.withFreshCache().build();
+
+    sqlExpectation = SqlExpectation.newBuilder()
+        .query( "select " + aggregator + "(unit_sales) c0 from sales_fact_1997" )
+        .columns( "c0" )
+        .rows( expected )
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    mondrianContext.release();
+  }
+
+  @Benchmark
+  public MondrianExecution mondrian( FreshCache cache ) throws Exception {
+    return mondrianContext.verify( cache.freshCache ? freshExpectation : warmExpectation );
+  }
+
+  @Benchmark
+  public void sql() throws Exception {
+    SqlContext.dbcpContext().verify( sqlExpectation );
+  }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the drillthrough queries of {@link DrillthroughTest}, on a
+ * snowflake and on a degenerate dimension. Drillthrough bypasses the
+ * cell cache, so there is no separate fresh cache variant.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 2 )
+public class DrillthroughBenchmark {
+
+  private MondrianContext snowflakeContext;
+  private MondrianContext degenerateContext;
+  private MondrianExpectation snowflakeExpectation;
+  private MondrianExpectation degenerateExpectation;
+
+  @Setup
+  public void setUp() throws Exception {
+    snowflakeContext = MondrianContext.lease( FoodMartCatalogs.SNOWFLAKE_WITH_PRODUCT );
+    snowflakeExpectation = MondrianExpectation.newBuilder()
+        .query(
+          "DRILLTHROUGH\n"
+            + "SELECT {[Product].[Product Subcategory].[Beer]} ON 0\n"
+            + "FROM Sales\n" )
+        .expectResultSet()
+        .rows(
+          "Drink|Alcoholic Beverages|Beer and Wine|Beer|Good|Good Imported Beer|1",
+          "Drink|Alcoholic Beverages|Beer and Wine|Beer|Good|Good Imported Beer|3" )
+        .partial()
+        .build();
+
+    degenerateContext = MondrianContext.lease( FoodMartCatalogs.FLAT_WITH_CUSTOMER );
+    degenerateExpectation = MondrianExpectation.newBuilder()
+        .query(
+          "DRILLTHROUGH\n"
+            + "SELECT {[customer].[customer id].[5]} ON 0\n"
+            + "FROM Sales\n" )
+        .expectResultSet()
+        .rows( "5|2" )
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    snowflakeContext.release();
+    degenerateContext.release();
+  }
+
+  @Benchmark
+  public MondrianExecution snowflake() throws Exception {
+    return snowflakeContext.verify( snowflakeExpectation );
+  }
+
+  @Benchmark
+  public MondrianExecution degenerate() throws Exception {
+    return degenerateContext.verify( degenerateExpectation );
+  }
+}
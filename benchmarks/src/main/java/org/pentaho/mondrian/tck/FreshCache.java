@@ -0,0 +1,38 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Whether a Mondrian benchmark flushes the schema cache before each query,
+ * as the test suite does, to measure the SQL generation and loading path.
+ * Only the Mondrian benchmarks take this state, so that the SQL benchmarks
+ * next to them, which have no cache to flush, don't run once per value.
+ */
+@State( Scope.Benchmark )
+public class FreshCache {
+  @Param( { "false", "true" } )
+  public boolean freshCache;
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many rows per second {@link ResultSetValidator} validates,
+ * against their expected text and against their digest.
+ *
+ * <p>The rows, shaped like those of sales_fact_1997, come from an
+ * in-memory result set, so that the driver and the database don't count.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 2 )
+public class ResultSetValidatorBenchmark {
+  static final int ROWS = 100000;
+  private static final String[] COLUMNS = { "product_id", "customer_id", "store_sales", "unit_sales", "promotion" };
+  private static final int[] TYPES = { Types.INTEGER, Types.BIGINT, Types.DECIMAL, Types.DOUBLE, Types.VARCHAR };
+
+  private Object[][] data;
+  private ResultSetValidator rowsValidator;
+  private ResultSetValidator digestValidator;
+
+  @Setup
+  public void setUp() throws Exception {
+    data = new Object[ROWS][];
+    final String[] rows = new String[ROWS];
+    final DecimalFormat format = new DecimalFormat();
+    for ( int i = 0; i < ROWS; i++ ) {
+      data[i] = new Object[] {
+        i % 1560,
+        (long) ( i % 5581 ),
+        new BigDecimal( i % 1000 ).movePointLeft( 2 ),
+        (double) ( i % 6 ),
+        i % 7 == 0 ? null : "Promotion " + i % 100
+      };
+      rows[i] =
+          format.format( data[i][0] ) + "|" + format.format( data[i][1] ) + "|"
+          + format.format( data[i][2] ) + "|" + format.format( data[i][3] ) + "|"
+          + data[i][4];
+    }
+    rowsValidator = new ResultSetValidator( null, false, rows, false, null );
+    digestValidator =
+        new ResultSetValidator( null, false, null, false, null, ResultSetDigest.digest( newResultSet() ) );
+  }
+
+  @Benchmark
+  @OperationsPerInvocation( ROWS )
+  public void rows() throws Exception {
+    rowsValidator.validateRows( newResultSet() );
+  }
+
+  @Benchmark
+  @OperationsPerInvocation( ROWS )
+  public void digest() throws Exception {
+    digestValidator.validateRows( newResultSet() );
+  }
+
+  private ResultSet newResultSet() {
+    final ResultSetMetaData metaData = proxy(
+        ResultSetMetaData.class,
+        new InvocationHandler() {
+          @Override
+          public Object invoke( Object proxy, Method method, Object[] args ) {
+            switch ( method.getName() ) {
+              case "getColumnCount":
+                return COLUMNS.length;
+              case "getColumnName":
+              case "getColumnLabel":
+                return COLUMNS[(Integer) args[0] - 1];
+              case "getColumnType":
+                return TYPES[(Integer) args[0] - 1];
+              default:
+                throw new UnsupportedOperationException( method.getName() );
+            }
+          }
+        } );
+    return proxy(
+        ResultSet.class,
+        new InvocationHandler() {
+          private int row = -1;
+          private Object last;
+
+          @Override
+          public Object invoke( Object proxy, Method method, Object[] args ) {
+            switch ( method.getName() ) {
+              case "next":
+                return ++row < data.length;
+              case "getMetaData":
+                return metaData;
+              case "wasNull":
+                return last == null;
+              case "getObject":
+                return last = data[row][(Integer) args[0] - 1];
+              case "getString":
+                last = data[row][(Integer) args[0] - 1];
+                return last == null ? null : last.toString();
+              case "getDouble":
+                last = data[row][(Integer) args[0] - 1];
+                return last == null ? 0d : ( (Number) last ).doubleValue();
+              case "close":
+                return null;
+              default:
+                throw new UnsupportedOperationException( method.getName() );
+            }
+          }
+        } );
+  }
+
+  private static <T> T proxy( Class<T> clazz, InvocationHandler handler ) {
+    return clazz.cast(
+        Proxy.newProxyInstance(
+          ResultSetValidatorBenchmark.class.getClassLoader(), new Class<?>[] { clazz }, handler ) );
+  }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Function;
+
+/**
+ * Benchmarks the queries of {@link TopCountTest}: a native TopCount
+ * through Mondrian, and a SQL query limited by Statement.setMaxRows.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 2 )
+@Measurement( iterations = 10, time = 2 )
+@Fork( 2 )
+public class TopCountBenchmark {
+
+  private MondrianContext mondrianContext;
+  private MondrianExpectation warmExpectation;
+  private MondrianExpectation freshExpectation;
+  private SqlExpectation sqlExpectation;
+
+  @Setup
+  public void setUp() throws Exception {
+    mondrianContext = MondrianContext.lease( FoodMartCatalogs.FLAT_WITH_CUSTOMER );
+    final MondrianExpectation.Builder builder = MondrianExpectation.newBuilder()
+        .query(
+          "select "
+            + "  non empty TopCount([customer].[customer].[customer id].members,5,[Measures].[Unit Sales]) on 0,"
+            + "  [Measures].[Unit Sales] on 1 "
+            + "  from Sales" )
+        .result(
+          "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[customer].[4021]}\n"
+            + "{[customer].[8452]}\n"
+            + "{[customer].[5295]}\n"
+            + "{[customer].[4727]}\n"
+            + "{[customer].[1297]}\n"
+            + "Axis #2:\n"
+            + "{[Measures].[Unit Sales]}\n"
+            + "Row #0: 518\n"
+            + "Row #0: 447\n"
+            + "Row #0: 441\n"
+            + "Row #0: 439\n"
+            + "Row #0: 392\n" );
+    warmExpectation = builder.build();
+    freshExpectation = builder.withFreshCache().build();
+
+    sqlExpectation = SqlExpectation.newBuilder()
+        .query( "select unit_sales from sales_fact_1997 order by unit_sales desc" )
+        .modifyStatement( new Function<Statement, Void>() {
+          @Override
+          public Void apply( final Statement statement ) {
+            try {
+              statement.setMaxRows( 2 );
+            } catch ( SQLException e ) {
+              throw new RuntimeException( e );
+            }
+            return null;
+          }
+        } )
+        .rows( "6", "6" )
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    mondrianContext.release();
+  }
+
+  @Benchmark
+  public MondrianExecution mondrian( FreshCache cache ) throws Exception {
+    return mondrianContext.verify( cache.freshCache ? freshExpectation : warmExpectation );
+  }
+
+  @Benchmark
+  public void sql() throws Exception {
+    SqlContext.dbcpContext().verify( sqlExpectation );
+  }
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+
+/**
+ * Compares benchmark results against a baseline written by an earlier run,
+ * and fails when a metric regressed by more than a threshold.
+ *
+ * <p>The baseline and the threshold are set in test.properties by
+ * benchmark.baseline.file and benchmark.regression.threshold. Metrics
+ * missing from either side are ignored, and so are those the baseline
+ * recorded with another driver, Mondrian version or Mondrian properties.
+ *
+ * <p>Only throughputs, and the medians of latencies measured at least
+ * {@value #MIN_LATENCY_SAMPLES} times, are compared. Counts, such as
+ * heap usage, and the tails of latencies vary too much from one run to
+ * the next to gate on.
+ */
+public class BenchmarkComparator {
+  private static final Logger LOGGER = Logger.getLogger( BenchmarkComparator.class );
+  static final int MIN_LATENCY_SAMPLES = 5;
+
+  private final List<BenchmarkResults.Result> baseline;
+  private final double threshold;
+
+  /**
+   * @param baseline Results of the reference run
+   * @param threshold Relative change above which a metric has regressed,
+   *        for example 0.1 for 10%
+   */
+  public BenchmarkComparator( List<BenchmarkResults.Result> baseline, double threshold ) {
+    this.baseline = baseline;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Returns a description of each metric of the given tests which
+   * regressed compared to the baseline.
+   *
+   * @param testPrefix Only metrics of tests starting with this prefix
+   *        are compared
+   */
+  public List<String> findRegressions( List<BenchmarkResults.Result> results, String testPrefix ) {
+    final Map<String, BenchmarkResults.Result> baselineByKey = new HashMap<>();
+    final Set<String> baselineMetrics = new HashSet<>();
+    for ( BenchmarkResults.Result result : baseline ) {
+      baselineByKey.put( key( result ), result );
+      baselineMetrics.add( result.test + '\u0000' + result.metric );
+    }
+    final List<String> regressions = new ArrayList<>();
+    int otherEnvironment = 0;
+    for ( BenchmarkResults.Result result : results ) {
+      if ( !result.test.startsWith( testPrefix ) || !isGated( result ) ) {
+        continue;
+      }
+      final BenchmarkResults.Result reference = baselineByKey.get( key( result ) );
+      if ( reference == null ) {
+        if ( baselineMetrics.contains( result.test + '\u0000' + result.metric ) ) {
+          otherEnvironment++;
+        }
+        continue;
+      }
+      if ( reference.value <= 0 ) {
+        continue;
+      }
+      if ( !result.isThroughput() && reference.samples >= 0 && reference.samples < MIN_LATENCY_SAMPLES ) {
+        continue;
+      }
+      final double change = ( result.value - reference.value ) / reference.value;
+      final boolean regressed =
+          result.isHigherBetter()
+            ? change < -threshold
+            : change > threshold;
+      if ( regressed ) {
+        regressions.add(
+            String.format(
+              "%s %s went from %.2f%s to %.2f%s (%+.1f%%)",
+              result.test, result.metric,
+              reference.value, reference.unit,
+              result.value, result.unit,
+              change * 100 ) );
+      }
+    }
+    if ( otherEnvironment > 0 ) {
+      LOGGER.warn(
+          otherEnvironment + " metrics of " + testPrefix + " were not compared, since the baseline recorded"
+          + " them with another driver, Mondrian version or Mondrian properties." );
+    }
+    return regressions;
+  }
+
+  /**
+   * Whether a regression of the given metric fails the tests.
+   */
+  private static boolean isGated( BenchmarkResults.Result result ) {
+    if ( result.isThroughput() ) {
+      return true;
+    }
+    return BenchmarkResults.UNIT_MILLIS.equals( result.unit )
+        && result.metric.endsWith( ".p50" )
+        && result.samples >= MIN_LATENCY_SAMPLES;
+  }
+
+  /**
+   * Returns the key of a result: its test, metric, driver, Mondrian
+   * version and Mondrian properties.
+   */
+  private static String key( BenchmarkResults.Result result ) {
+    return result.test + '\u0000' + result.metric + '\u0000' + result.driver
+        + '\u0000' + result.mondrianVersion + '\u0000' + result.properties;
+  }
+
+  /**
+   * Writes the results recorded so far to benchmark.results.file, then
+   * fails if any metric of the given tests regressed compared to
+   * benchmark.baseline.file. Does nothing if the files are not configured.
+   */
+  public static void writeAndCompare( String testPrefix ) throws Exception {
+    final String resultsFile = Context.testProperties.getProperty( "benchmark.results.file", "" );
+    if ( !resultsFile.isEmpty() ) {
+      BenchmarkResults.instance().write( Paths.get( resultsFile ) );
+    }
+    final String baselineFile = Context.testProperties.getProperty( "benchmark.baseline.file", "" );
+    if ( baselineFile.isEmpty() ) {
+      return;
+    }
+    final Path baselinePath = Paths.get( baselineFile );
+    if ( !baselinePath.toFile().exists() ) {
+      LOGGER.warn( "Benchmark baseline " + baselineFile + " does not exist. Skipping comparison." );
+      return;
+    }
+    final double threshold =
+        Double.parseDouble(
+          Context.testProperties.getProperty( "benchmark.regression.threshold", "0.1" ) );
+    final List<String> regressions =
+        new BenchmarkComparator( BenchmarkResults.read( baselinePath ), threshold )
+          .findRegressions( BenchmarkResults.instance().getResults(), testPrefix );
+    for ( String regression : regressions ) {
+      LOGGER.error( "Performance regression: " + regression );
+    }
+    if ( !regressions.isEmpty() ) {
+      Assert.fail( "Performance regressed compared to " + baselineFile + ":\n" + regressions );
+    }
+  }
+}
@@ -0,0 +1,449 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.MondrianServer;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+/**
+ * Collects the performance metrics of a TCK run, and writes them to a CSV
+ * file that can be diffed, or compared against a baseline by
+ * {@link BenchmarkComparator}.
+ *
+ * <p>Each row is keyed by the test, the metric, the JDBC driver
+ * (jdbc.drivers), the Mondrian version and those Mondrian properties in
+ * effect that change performance. Other properties, such as connect
+ * strings, which can hold credentials, are never written.
+ *
+ * <p>Latencies are recorded under the current test, which the test suite
+ * sets before each test method.
+ */
+public class BenchmarkResults {
+  static final String UNIT_MILLIS = "ms";
+  static final String UNIT_QPS = "qps";
+  static final String UNIT_ROWS_PER_SECOND = "rows/s";
+  static final String UNIT_COUNT = "count";
+  private static final String HEADER = "test,metric,unit,value,samples,driver,mondrianVersion,properties";
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+  private static final BenchmarkResults instance = new BenchmarkResults();
+
+  /**
+   * Mondrian properties written along with the results.
+   */
+  private static final Set<String> PERFORMANCE_PROPERTIES =
+      ImmutableSortedSet.of(
+        "mondrian.expCache.enable",
+        "mondrian.native.crossjoin.enable",
+        "mondrian.native.ExpandNonNative",
+        "mondrian.native.filter.enable",
+        "mondrian.native.nonempty.enable",
+        "mondrian.native.topcount.enable",
+        "mondrian.olap.fun.crossjoin.optimizer.size",
+        "mondrian.result.limit",
+        "mondrian.rolap.aggregates.ChooseByVolume",
+        "mondrian.rolap.aggregates.Read",
+        "mondrian.rolap.aggregates.Use",
+        "mondrian.rolap.cellBatchSize",
+        "mondrian.rolap.EnableInMemoryRollup",
+        "mondrian.rolap.EnableRolapCubeMemberCache",
+        "mondrian.rolap.groupingsets.enable",
+        "mondrian.rolap.LargeDimensionThreshold",
+        "mondrian.rolap.maxCacheThreads",
+        "mondrian.rolap.maxConstraints",
+        "mondrian.rolap.maxQueryThreads",
+        "mondrian.rolap.maxSqlThreads",
+        "mondrian.rolap.queryTimeout",
+        "mondrian.rolap.SegmentCache",
+        "mondrian.rolap.SparseSegmentCountThreshold",
+        "mondrian.rolap.SparseSegmentDensityThreshold",
+        "mondrian.rolap.star.disableCaching" );
+
+  private final ConcurrentMap<List<String>, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<String>, Double> throughputs = new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<String>, Double> rowThroughputs = new ConcurrentHashMap<>();
+  private final ConcurrentMap<List<String>, Long> counts = new ConcurrentHashMap<>();
+  private volatile String currentTest;
+
+  BenchmarkResults() {
+  }
+
+  public static BenchmarkResults instance() {
+    return instance;
+  }
+
+  /**
+   * Sets the test under which the following results are recorded, or null
+   * to drop them. Results recorded while no test is current are dropped
+   * rather than filed under whichever test ran last.
+   */
+  public void setCurrentTest( String test ) {
+    this.currentTest = test;
+  }
+
+  public String getCurrentTest() {
+    return currentTest;
+  }
+
+  /**
+   * Records a latency of the given metric for the current test.
+   */
+  public void recordLatency( String metric, long nanos ) {
+    final String test = currentTest;
+    if ( test != null ) {
+      latencyHistogram( test, metric ).recordValue( nanos );
+    }
+  }
+
+  /**
+   * Adds the latencies of a histogram to those of the given metric for
+   * the current test.
+   */
+  public void recordLatencies( String metric, LatencyHistogram histogram ) {
+    final String test = currentTest;
+    if ( test != null ) {
+      latencyHistogram( test, metric ).add( histogram );
+    }
+  }
+
+  /**
+   * Records the throughput, in queries per second, of the given metric
+   * for the current test. A later value replaces an earlier one.
+   */
+  public void recordThroughput( String metric, double queriesPerSecond ) {
+    final String test = currentTest;
+    if ( test != null ) {
+      throughputs.put( key( test, metric ), queriesPerSecond );
+    }
+  }
+
+  /**
+   * Records the throughput, in rows fetched per second, of the given metric
+   * for the current test. A later value replaces an earlier one.
+   */
+  public void recordRowThroughput( String metric, double rowsPerSecond ) {
+    final String test = currentTest;
+    if ( test != null ) {
+      rowThroughputs.put( key( test, metric ), rowsPerSecond );
+    }
+  }
+
+  /**
+   * Records a count of the given metric for the current test, such as a
+   * number of SQL statements. A later value replaces an earlier one.
+   */
+  public void recordCount( String metric, long count ) {
+    final String test = currentTest;
+    if ( test != null ) {
+      counts.put( key( test, metric ), count );
+    }
+  }
+
+  private LatencyHistogram latencyHistogram( String test, String metric ) {
+    final List<String> key = key( test, metric );
+    LatencyHistogram histogram = latencies.get( key );
+    if ( histogram == null ) {
+      final LatencyHistogram newHistogram = new LatencyHistogram();
+      histogram = latencies.putIfAbsent( key, newHistogram );
+      if ( histogram == null ) {
+        histogram = newHistogram;
+      }
+    }
+    return histogram;
+  }
+
+  private static List<String> key( String test, String metric ) {
+    final List<String> key = new ArrayList<>( 2 );
+    key.add( test );
+    key.add( metric );
+    return key;
+  }
+
+  /**
+   * Returns the results recorded so far, sorted by test and metric.
+   * Each latency histogram gives a row for its median, 99th percentile
+   * and maximum.
+   */
+  public List<Result> getResults() {
+    final String driver = driver();
+    final String version = mondrianVersion();
+    final String properties = mondrianProperties();
+    final Map<String, Result> results = new TreeMap<>();
+    for ( Map.Entry<List<String>, LatencyHistogram> entry : latencies.entrySet() ) {
+      final String test = entry.getKey().get( 0 );
+      final String metric = entry.getKey().get( 1 );
+      final LatencyHistogram histogram = entry.getValue();
+      if ( histogram.getTotalCount() == 0 ) {
+        continue;
+      }
+      final long samples = histogram.getTotalCount();
+      put( results, new Result( test, metric + ".p50", UNIT_MILLIS,
+          LatencyHistogram.toMillis( histogram.getValueAtPercentile( 50 ) ),
+          samples, driver, version, properties ) );
+      put( results, new Result( test, metric + ".p99", UNIT_MILLIS,
+          LatencyHistogram.toMillis( histogram.getValueAtPercentile( 99 ) ),
+          samples, driver, version, properties ) );
+      put( results, new Result( test, metric + ".max", UNIT_MILLIS,
+          LatencyHistogram.toMillis( histogram.getMaxValue() ),
+          samples, driver, version, properties ) );
+    }
+    for ( Map.Entry<List<String>, Double> entry : throughputs.entrySet() ) {
+      put( results, new Result(
+          entry.getKey().get( 0 ), entry.getKey().get( 1 ), UNIT_QPS, entry.getValue(),
+          1, driver, version, properties ) );
+    }
+    for ( Map.Entry<List<String>, Double> entry : rowThroughputs.entrySet() ) {
+      put( results, new Result(
+          entry.getKey().get( 0 ), entry.getKey().get( 1 ), UNIT_ROWS_PER_SECOND, entry.getValue(),
+          1, driver, version, properties ) );
+    }
+    for ( Map.Entry<List<String>, Long> entry : counts.entrySet() ) {
+      put( results, new Result(
+          entry.getKey().get( 0 ), entry.getKey().get( 1 ), UNIT_COUNT, entry.getValue(),
+          1, driver, version, properties ) );
+    }
+    return new ArrayList<>( results.values() );
+  }
+
+  private static void put( Map<String, Result> results, Result result ) {
+    results.put( result.test + '\u0000' + result.metric, result );
+  }
+
+  /**
+   * Writes the results recorded so far, replacing the content of the file.
+   */
+  public void write( Path file ) throws IOException {
+    if ( file.toAbsolutePath().getParent() != null ) {
+      Files.createDirectories( file.toAbsolutePath().getParent() );
+    }
+    try ( Writer writer = Files.newBufferedWriter( file, UTF8 ) ) {
+      writer.write( HEADER );
+      writer.write( '\n' );
+      for ( Result result : getResults() ) {
+        writer.write(
+            csv( result.test ) + ',' + csv( result.metric ) + ',' + result.unit + ','
+            + result.value + ',' + result.samples + ',' + csv( result.driver ) + ','
+            + csv( result.mondrianVersion ) + ',' + csv( result.properties ) + '\n' );
+      }
+    }
+  }
+
+  /**
+   * Reads results written by {@link #write(Path)}. Files written before
+   * the samples column was added give -1 samples.
+   */
+  public static List<Result> read( Path file ) throws IOException {
+    final List<Result> results = new ArrayList<>();
+    try ( BufferedReader reader = Files.newBufferedReader( file, UTF8 ) ) {
+      String line = reader.readLine();
+      if ( line == null ) {
+        return results;
+      }
+      final Map<String, Integer> columns = new HashMap<>();
+      for ( String column : parseCsv( line ) ) {
+        columns.put( column, columns.size() );
+      }
+      while ( ( line = reader.readLine() ) != null ) {
+        if ( line.isEmpty() ) {
+          continue;
+        }
+        final List<String> fields = parseCsv( line );
+        final String samples = field( fields, columns, "samples" );
+        results.add(
+            new Result(
+              field( fields, columns, "test" ),
+              field( fields, columns, "metric" ),
+              field( fields, columns, "unit" ),
+              Double.parseDouble( field( fields, columns, "value" ) ),
+              samples.isEmpty() ? -1 : Long.parseLong( samples ),
+              field( fields, columns, "driver" ),
+              field( fields, columns, "mondrianVersion" ),
+              field( fields, columns, "properties" ) ) );
+      }
+    }
+    return results;
+  }
+
+  private static String field( List<String> fields, Map<String, Integer> columns, String column ) {
+    final Integer index = columns.get( column );
+    return index == null || index >= fields.size() ? "" : fields.get( index );
+  }
+
+  private static String driver() {
+    return Context.testProperties.getProperty( "jdbc.drivers", "" );
+  }
+
+  private static String mondrianVersion() {
+    try {
+      return MondrianServer.forId( null ).getVersion().getVersionString();
+    } catch ( Throwable t ) {
+      return "unknown";
+    }
+  }
+
+  private static String mondrianProperties() {
+    final StringBuilder buf = new StringBuilder();
+    final MondrianProperties properties = MondrianProperties.instance();
+    for ( String name : PERFORMANCE_PROPERTIES ) {
+      if ( properties.getProperty( name ) == null ) {
+        continue;
+      }
+      if ( buf.length() > 0 ) {
+        buf.append( ';' );
+      }
+      buf.append( name ).append( '=' ).append( properties.getProperty( name ) );
+    }
+    return buf.toString();
+  }
+
+  private static String csv( String value ) {
+    if ( value.contains( "," ) || value.contains( "\"" ) || value.contains( "\n" ) ) {
+      return '"' + value.replace( "\"", "\"\"" ).replace( "\n", " " ) + '"';
+    }
+    return value;
+  }
+
+  private static List<String> parseCsv( String line ) {
+    final List<String> fields = new ArrayList<>();
+    final StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for ( int i = 0; i < line.length(); i++ ) {
+      final char c = line.charAt( i );
+      if ( quoted ) {
+        if ( c == '"' && i + 1 < line.length() && line.charAt( i + 1 ) == '"' ) {
+          field.append( '"' );
+          i++;
+        } else if ( c == '"' ) {
+          quoted = false;
+        } else {
+          field.append( c );
+        }
+      } else if ( c == '"' ) {
+        quoted = true;
+      } else if ( c == ',' ) {
+        fields.add( field.toString() );
+        field.setLength( 0 );
+      } else {
+        field.append( c );
+      }
+    }
+    fields.add( field.toString() );
+    return fields;
+  }
+
+  public static class Result {
+    final String test;
+    final String metric;
+    final String unit;
+    final double value;
+    final long samples;
+    final String driver;
+    final String mondrianVersion;
+    final String properties;
+
+    Result(
+        String test,
+        String metric,
+        String unit,
+        double value,
+        long samples,
+        String driver,
+        String mondrianVersion,
+        String properties ) {
+      this.test = test;
+      this.metric = metric;
+      this.unit = unit;
+      this.value = value;
+      this.samples = samples;
+      this.driver = driver;
+      this.mondrianVersion = mondrianVersion;
+      this.properties = properties;
+    }
+
+    public String getTest() {
+      return test;
+    }
+
+    public String getMetric() {
+      return metric;
+    }
+
+    public String getUnit() {
+      return unit;
+    }
+
+    public double getValue() {
+      return value;
+    }
+
+    /**
+     * Returns how many values a latency was computed from, 1 for a
+     * throughput or a count, or -1 if unknown.
+     */
+    public long getSamples() {
+      return samples;
+    }
+
+    public String getDriver() {
+      return driver;
+    }
+
+    public String getMondrianVersion() {
+      return mondrianVersion;
+    }
+
+    public String getProperties() {
+      return properties;
+    }
+
+    /**
+     * Whether the value is a throughput.
+     */
+    public boolean isThroughput() {
+      return UNIT_QPS.equals( unit ) || UNIT_ROWS_PER_SECOND.equals( unit );
+    }
+
+    /**
+     * Whether a higher value is an improvement, as for throughputs, rather
+     * than a regression, as for latencies.
+     */
+    public boolean isHigherBetter() {
+      return isThroughput();
+    }
+  }
+}
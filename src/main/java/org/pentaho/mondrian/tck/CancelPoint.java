@@ -0,0 +1,58 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+/**
+ * Phases of the execution of an MDX query at which
+ * {@link MondrianExpectation.Builder#cancelAt(CancelPoint, int)} cancels it.
+ *
+ * <p>Each point is reached on the Nth SQL statement Mondrian issues for the
+ * query. The thread that reaches it is held there until the query has been
+ * canceled, so that the cancel always hits the same phase, however fast or
+ * loaded the backend is.
+ */
+public enum CancelPoint {
+  /**
+   * Mondrian is about to send the SQL statement. Statements that load
+   * members, rather than cells, are issued while the axes are evaluated.
+   */
+  SQL_ISSUED,
+
+  /**
+   * The first row of the SQL statement has been fetched, so that a segment
+   * or a list of members is being loaded. Requires jdbc.instrument.
+   */
+  SQL_FIRST_ROW,
+
+  /**
+   * All the rows of the SQL statement have been read and Mondrian goes on
+   * evaluating the query. Requires jdbc.instrument.
+   */
+  SQL_COMPLETED;
+
+  /**
+   * Whether the point can be detected without {@link InstrumentingDriver}.
+   */
+  boolean requiresInstrumentation() {
+    return this != SQL_ISSUED;
+  }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import org.junit.ComparisonFailure;
+import org.olap4j.CellSet;
+import org.olap4j.layout.TraditionalCellSetFormatter;
+
+/**
+ * Compares a {@link CellSet} with its expected text, as printed by
+ * {@link TraditionalCellSetFormatter}, without printing it to a string.
+ *
+ * <p>The formatter walks the axes and the cells and writes to a writer
+ * that checks each character against the expected text as it arrives, so
+ * only the current line is kept. The walk stops at the first mismatch,
+ * which is reported for its line. Line endings are compared as
+ * <code>\n</code>.
+ */
+public class CellSetComparator {
+
+  private CellSetComparator() {
+  }
+
+  /**
+   * Fails with a {@link ComparisonFailure} if the cell set doesn't print
+   * as the expected text.
+   */
+  public static void assertEquals( String expected, CellSet cellSet ) {
+    final ComparingWriter writer = new ComparingWriter( expected.replace( "\r\n", "\n" ) );
+    final PrintWriter pw = new PrintWriter( writer );
+    new TraditionalCellSetFormatter().format( cellSet, pw );
+    pw.flush();
+    writer.end();
+  }
+
+  private static class ComparingWriter extends Writer {
+    private final String expected;
+    private final StringBuilder line = new StringBuilder();
+    private int position;
+    private int lineStart;
+    private int lineNumber = 1;
+    private boolean pendingReturn;
+
+    ComparingWriter( String expected ) {
+      this.expected = expected;
+    }
+
+    @Override
+    public void write( char[] chars, int offset, int length ) {
+      for ( int i = offset; i < offset + length; i++ ) {
+        write( chars[i] );
+      }
+    }
+
+    @Override
+    public void write( String string, int offset, int length ) {
+      for ( int i = offset; i < offset + length; i++ ) {
+        write( string.charAt( i ) );
+      }
+    }
+
+    @Override
+    public void write( int c ) {
+      if ( pendingReturn ) {
+        pendingReturn = false;
+        if ( c != '\n' ) {
+          compare( '\r' );
+        }
+      }
+      if ( c == '\r' ) {
+        pendingReturn = true;
+        return;
+      }
+      compare( (char) c );
+    }
+
+    private void compare( char c ) {
+      if ( position >= expected.length() || expected.charAt( position ) != c ) {
+        line.append( c );
+        throw mismatch();
+      }
+      position++;
+      if ( c == '\n' ) {
+        line.setLength( 0 );
+        lineStart = position;
+        lineNumber++;
+      } else {
+        line.append( c );
+      }
+    }
+
+    /**
+     * Checks that the expected text has no more characters.
+     */
+    void end() {
+      if ( pendingReturn ) {
+        pendingReturn = false;
+        compare( '\r' );
+      }
+      if ( position < expected.length() ) {
+        throw mismatch();
+      }
+    }
+
+    private ComparisonFailure mismatch() {
+      int lineEnd = expected.indexOf( '\n', lineStart );
+      if ( lineEnd < 0 ) {
+        lineEnd = expected.length();
+      }
+      return new ComparisonFailure(
+          "Result doesn't match at line " + lineNumber + ", column " + ( position - lineStart + 1 ),
+          expected.substring( lineStart, lineEnd ),
+          line.toString() );
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
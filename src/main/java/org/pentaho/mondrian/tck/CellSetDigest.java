@@ -0,0 +1,76 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Computes a compact digest of a {@link CellSet}, so that large results
+ * can be validated without keeping their full text in the test.
+ *
+ * <p>The digest has the form <code>cellCount:hash</code>. The hash covers
+ * the unique names of the members of each position of each axis, slicer
+ * included, then the formatted value of each cell in ordinal order.
+ */
+public class CellSetDigest {
+
+  private CellSetDigest() {
+  }
+
+  public static String digest( CellSet cellSet ) {
+    final Hasher hasher = Hashing.murmur3_128().newHasher();
+    int cellCount = 1;
+    putAxis( hasher, cellSet.getFilterAxis() );
+    for ( CellSetAxis axis : cellSet.getAxes() ) {
+      putAxis( hasher, axis );
+      cellCount *= axis.getPositionCount();
+    }
+    for ( int ordinal = 0; ordinal < cellCount; ordinal++ ) {
+      final Cell cell = cellSet.getCell( ordinal );
+      final String value = cell.getFormattedValue();
+      putString( hasher, cell.isNull() || value == null ? "" : value );
+    }
+    return cellCount + ":" + hasher.hash().toString();
+  }
+
+  private static void putAxis( Hasher hasher, CellSetAxis axis ) {
+    for ( Position position : axis.getPositions() ) {
+      for ( Member member : position.getMembers() ) {
+        putString( hasher, member.getUniqueName() );
+      }
+      hasher.putChar( '\n' );
+    }
+    hasher.putChar( '#' );
+  }
+
+  private static void putString( Hasher hasher, String value ) {
+    hasher.putInt( value.length() );
+    hasher.putUnencodedChars( value );
+  }
+}
@@ -26,6 +26,16 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static java.nio.file.Files.newBufferedReader;
 
@@ -33,6 +43,14 @@ abstract class Context {
 
   public static final Properties testProperties;
 
+  /**
+   * Runs the verifications submitted through verifyAsync. Holds at most
+   * verify.async.threads running and as many queued verifications; beyond
+   * that, the thread that submits a verification runs it itself, which
+   * keeps a suite from flooding the backend.
+   */
+  private static ExecutorService asyncExecutorService;
+
   static {
     try {
       testProperties = loadTestProperties();
@@ -46,6 +64,56 @@ abstract class Context {
     }
   }
 
+  /**
+   * Returns the executor on which verifyAsync runs verifications, unless
+   * it is given one.
+   */
+  static synchronized Executor asyncExecutor() {
+    if ( asyncExecutorService == null ) {
+      final int threads = Integer.parseInt( testProperties.getProperty( "verify.async.threads", "8" ) );
+      asyncExecutorService = new ThreadPoolExecutor(
+          threads,
+          threads,
+          0,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>( threads ),
+          new ThreadFactory() {
+            public Thread newThread( Runnable r ) {
+              final Thread t = Executors.defaultThreadFactory().newThread( r );
+              t.setName( "Context.verifyAsync-" + t.getName() );
+              t.setDaemon( true );
+              return t;
+            }
+          },
+          new ThreadPoolExecutor.CallerRunsPolicy() );
+    }
+    return asyncExecutorService;
+  }
+
+  /**
+   * Runs a verification on the given executor, and returns a future that
+   * completes with its result or with the exception or assertion error it
+   * failed with.
+   */
+  static <T> CompletableFuture<T> submitAsync( final Callable<T> verification, Executor executor ) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    final Runnable task = new Runnable() {
+      public void run() {
+        try {
+          future.complete( verification.call() );
+        } catch ( Throwable t ) {
+          future.completeExceptionally( t );
+        }
+      }
+    };
+    try {
+      executor.execute( task );
+    } catch ( RejectedExecutionException e ) {
+      future.completeExceptionally( e );
+    }
+    return future;
+  }
+
   private static Properties loadTestProperties() throws IOException {
     Properties testProperties = new Properties();
     try ( BufferedReader reader = newBufferedReader( Paths.get( "test.properties" ), Charset.defaultCharset() ) ) {
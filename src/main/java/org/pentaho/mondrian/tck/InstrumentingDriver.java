@@ -0,0 +1,346 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver which wraps the driver of the database under test, and times
+ * each statement executed through it.
+ *
+ * <p>Its URLs are those of the wrapped driver, prefixed by
+ * {@value #URL_PREFIX}. For each statement, it measures how long the
+ * execution took, how long until the first row was fetched, the total time
+ * spent fetching rows and the number of rows. The timings are passed to the
+ * current {@link Listener} once the result set, or the statement, is
+ * closed.
+ *
+ * <p>It also counts the statements that are active, that is executing or
+ * with a result set still open, which tells whether the statements of a
+ * canceled query were released by the database.
+ */
+public class InstrumentingDriver implements Driver {
+  public static final String URL_PREFIX = "jdbc:tck:";
+
+  private static volatile Listener listener;
+  private static final AtomicInteger activeStatements = new AtomicInteger();
+
+  static {
+    try {
+      DriverManager.registerDriver( new InstrumentingDriver() );
+    } catch ( SQLException e ) {
+      throw new RuntimeException( e );
+    }
+  }
+
+  /**
+   * Makes sure the driver is registered with the DriverManager, which it
+   * is once its class is initialized. Referring to {@link #URL_PREFIX}
+   * doesn't initialize it, since the compiler inlines the constant.
+   */
+  public static void register() {
+    // Initializing the class registered the driver.
+  }
+
+  /**
+   * Receives the timings of the statements executed through the driver.
+   */
+  public interface Listener {
+    /**
+     * Called on the thread reading the result set, once its first row has
+     * been fetched.
+     */
+    void onFirstRow( String sql );
+
+    void onStatementCompleted( SqlTiming timing );
+  }
+
+  /**
+   * Sets the listener of all the statements executed through the driver,
+   * or null to stop listening.
+   */
+  public static void setListener( Listener listener ) {
+    InstrumentingDriver.listener = listener;
+  }
+
+  public static Listener getListener() {
+    return listener;
+  }
+
+  /**
+   * Returns how many statements opened through the driver are executing,
+   * or have a result set that is not closed yet.
+   */
+  public static int getActiveStatementCount() {
+    return activeStatements.get();
+  }
+
+  /**
+   * Returns the given JDBC URL, prefixed so that its connections are
+   * opened through this driver.
+   */
+  public static String instrument( String url ) {
+    return url.startsWith( URL_PREFIX ) ? url : URL_PREFIX + url;
+  }
+
+  @Override
+  public Connection connect( String url, Properties info ) throws SQLException {
+    if ( !acceptsURL( url ) ) {
+      return null;
+    }
+    final Connection connection = DriverManager.getConnection( url.substring( URL_PREFIX.length() ), info );
+    return proxy( Connection.class, new ConnectionHandler( connection ) );
+  }
+
+  @Override
+  public boolean acceptsURL( String url ) {
+    return url != null && url.startsWith( URL_PREFIX );
+  }
+
+  @Override
+  public DriverPropertyInfo[] getPropertyInfo( String url, Properties info ) throws SQLException {
+    return DriverManager.getDriver( url.substring( URL_PREFIX.length() ) ).getPropertyInfo( url, info );
+  }
+
+  @Override
+  public int getMajorVersion() {
+    return 1;
+  }
+
+  @Override
+  public int getMinorVersion() {
+    return 0;
+  }
+
+  @Override
+  public boolean jdbcCompliant() {
+    return false;
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  private static <T> T proxy( Class<T> clazz, InvocationHandler handler ) {
+    return clazz.cast(
+        Proxy.newProxyInstance( InstrumentingDriver.class.getClassLoader(), new Class<?>[] { clazz }, handler ) );
+  }
+
+  private static Object invoke( Object target, Method method, Object[] args ) throws Throwable {
+    try {
+      return method.invoke( target, args );
+    } catch ( InvocationTargetException e ) {
+      throw e.getCause();
+    }
+  }
+
+  private static class ConnectionHandler implements InvocationHandler {
+    private final Connection connection;
+
+    ConnectionHandler( Connection connection ) {
+      this.connection = connection;
+    }
+
+    @Override
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+      final Object result = InstrumentingDriver.invoke( connection, method, args );
+      if ( result instanceof PreparedStatement ) {
+        // prepareStatement and prepareCall. The SQL is the first argument.
+        return proxy(
+            method.getReturnType().asSubclass( PreparedStatement.class ),
+            new StatementHandler( (Statement) result, (String) args[0] ) );
+      }
+      if ( result instanceof Statement ) {
+        return proxy( Statement.class, new StatementHandler( (Statement) result, null ) );
+      }
+      return result;
+    }
+  }
+
+  private static class StatementHandler implements InvocationHandler {
+    private final Statement statement;
+    private String sql;
+    private long executeStart;
+    private long executeNanos;
+    private ResultSetHandler resultSet;
+    private boolean active;
+
+    StatementHandler( Statement statement, String sql ) {
+      this.statement = statement;
+      this.sql = sql;
+    }
+
+    @Override
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+      final String name = method.getName();
+      if ( name.startsWith( "execute" ) ) {
+        if ( args != null && args.length > 0 && args[0] instanceof String ) {
+          sql = (String) args[0];
+        }
+        completeResultSet();
+        begin();
+        executeStart = System.nanoTime();
+        final Object result;
+        try {
+          result = InstrumentingDriver.invoke( statement, method, args );
+        } catch ( Throwable t ) {
+          end();
+          throw t;
+        }
+        executeNanos = System.nanoTime() - executeStart;
+        if ( result instanceof ResultSet ) {
+          return wrap( (ResultSet) result );
+        }
+        if ( Boolean.FALSE.equals( result ) || result instanceof Number ) {
+          // No result set. The statement is complete.
+          end();
+          complete( new SqlTiming( sql, executeNanos, -1, 0, 0 ) );
+        }
+        return result;
+      }
+      if ( name.equals( "getResultSet" ) ) {
+        final ResultSet result = (ResultSet) InstrumentingDriver.invoke( statement, method, args );
+        if ( result == null ) {
+          return null;
+        }
+        if ( resultSet != null && resultSet.resultSet == result ) {
+          return resultSet.proxy;
+        }
+        return wrap( result );
+      }
+      if ( name.equals( "close" ) ) {
+        completeResultSet();
+        end();
+      }
+      return InstrumentingDriver.invoke( statement, method, args );
+    }
+
+    private synchronized void begin() {
+      if ( !active ) {
+        active = true;
+        activeStatements.incrementAndGet();
+      }
+    }
+
+    private synchronized void end() {
+      if ( active ) {
+        active = false;
+        activeStatements.decrementAndGet();
+      }
+    }
+
+    private ResultSet wrap( ResultSet result ) {
+      resultSet = new ResultSetHandler( this, result, sql, executeStart, executeNanos );
+      resultSet.proxy = proxy( ResultSet.class, resultSet );
+      return resultSet.proxy;
+    }
+
+    private void completeResultSet() {
+      if ( resultSet != null ) {
+        resultSet.complete();
+        resultSet = null;
+      }
+    }
+  }
+
+  private static class ResultSetHandler implements InvocationHandler {
+    private final StatementHandler statement;
+    private final ResultSet resultSet;
+    private final String sql;
+    private final long executeStart;
+    private final long executeNanos;
+    private ResultSet proxy;
+    private long firstRowNanos = -1;
+    private long fetchNanos;
+    private long rowCount;
+    private boolean completed;
+
+    ResultSetHandler(
+        StatementHandler statement, ResultSet resultSet, String sql, long executeStart, long executeNanos ) {
+      this.statement = statement;
+      this.resultSet = resultSet;
+      this.sql = sql;
+      this.executeStart = executeStart;
+      this.executeNanos = executeNanos;
+    }
+
+    @Override
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+      final String name = method.getName();
+      if ( name.equals( "next" ) ) {
+        final long start = System.nanoTime();
+        final Object result = InstrumentingDriver.invoke( resultSet, method, args );
+        final long end = System.nanoTime();
+        fetchNanos += end - start;
+        if ( Boolean.TRUE.equals( result ) ) {
+          if ( rowCount++ == 0 ) {
+            firstRowNanos = end - executeStart;
+            firstRow( sql );
+          }
+        }
+        return result;
+      }
+      if ( name.equals( "close" ) ) {
+        complete();
+      }
+      return InstrumentingDriver.invoke( resultSet, method, args );
+    }
+
+    void complete() {
+      if ( !completed ) {
+        completed = true;
+        statement.end();
+        InstrumentingDriver.complete( new SqlTiming( sql, executeNanos, firstRowNanos, fetchNanos, rowCount ) );
+      }
+    }
+  }
+
+  private static void firstRow( String sql ) {
+    final Listener current = listener;
+    if ( current != null ) {
+      current.onFirstRow( sql );
+    }
+  }
+
+  private static void complete( SqlTiming timing ) {
+    final Listener current = listener;
+    if ( current != null ) {
+      current.onStatementCompleted( timing );
+    }
+  }
+}
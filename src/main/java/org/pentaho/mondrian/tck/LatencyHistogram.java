@@ -0,0 +1,163 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies, in nanoseconds, into log-linear buckets in the
+ * manner of an HDR histogram. Values are kept with a relative precision
+ * of better than 1%, whatever their magnitude, so that a single instance
+ * can hold sub-millisecond hits and multi-minute queries alike.
+ *
+ * <p>Recording is lock-free and may be done from any number of threads.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 8;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+  private static final int BUCKET_COUNT =
+      SUB_BUCKET_COUNT + ( Long.SIZE - SUB_BUCKET_BITS ) * SUB_BUCKET_HALF;
+
+  private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+  private final AtomicLong totalCount = new AtomicLong();
+  private final AtomicLong totalValue = new AtomicLong();
+  private final AtomicLong maxValue = new AtomicLong();
+
+  /**
+   * Records a single latency.
+   * @param nanos The latency, in nanoseconds. Negative values count as zero.
+   */
+  public void recordValue( long nanos ) {
+    final long value = Math.max( 0, nanos );
+    counts.incrementAndGet( indexOf( value ) );
+    totalCount.incrementAndGet();
+    totalValue.addAndGet( value );
+    long max;
+    while ( value > ( max = maxValue.get() ) ) {
+      if ( maxValue.compareAndSet( max, value ) ) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Adds all the values recorded by another histogram to this one.
+   */
+  public void add( LatencyHistogram other ) {
+    for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+      final long count = other.counts.get( i );
+      if ( count > 0 ) {
+        counts.addAndGet( i, count );
+      }
+    }
+    totalCount.addAndGet( other.totalCount.get() );
+    totalValue.addAndGet( other.totalValue.get() );
+    long max;
+    final long otherMax = other.maxValue.get();
+    while ( otherMax > ( max = maxValue.get() ) ) {
+      if ( maxValue.compareAndSet( max, otherMax ) ) {
+        break;
+      }
+    }
+  }
+
+  public long getTotalCount() {
+    return totalCount.get();
+  }
+
+  /**
+   * Returns the largest value recorded, in nanoseconds.
+   */
+  public long getMaxValue() {
+    return maxValue.get();
+  }
+
+  /**
+   * Returns the mean of the recorded values, in nanoseconds.
+   */
+  public double getMean() {
+    final long count = totalCount.get();
+    return count == 0 ? 0 : (double) totalValue.get() / count;
+  }
+
+  /**
+   * Returns the value, in nanoseconds, below which the given percentage
+   * of the recorded values fall.
+   * @param percentile A percentage between 0 and 100.
+   */
+  public long getValueAtPercentile( double percentile ) {
+    final long count = totalCount.get();
+    if ( count == 0 ) {
+      return 0;
+    }
+    final long target =
+        Math.max( 1, (long) Math.ceil( Math.min( percentile, 100d ) / 100d * count ) );
+    long seen = 0;
+    for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+      seen += counts.get( i );
+      if ( seen >= target ) {
+        return Math.min( highestValueAt( i ), maxValue.get() );
+      }
+    }
+    return maxValue.get();
+  }
+
+  /**
+   * Returns a one line summary of the distribution, in milliseconds.
+   */
+  public String summary() {
+    return String.format(
+        "p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+        toMillis( getValueAtPercentile( 50 ) ),
+        toMillis( getValueAtPercentile( 90 ) ),
+        toMillis( getValueAtPercentile( 99 ) ),
+        toMillis( getValueAtPercentile( 99.9 ) ),
+        toMillis( getMaxValue() ) );
+  }
+
+  static double toMillis( long nanos ) {
+    return (double) nanos / TimeUnit.MILLISECONDS.toNanos( 1 );
+  }
+
+  private static int indexOf( long value ) {
+    if ( value < SUB_BUCKET_COUNT ) {
+      return (int) value;
+    }
+    // Shift the value so that it fits in the upper half of the sub buckets.
+    final int shift = Long.SIZE - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+    return SUB_BUCKET_COUNT
+        + ( shift - 1 ) * SUB_BUCKET_HALF
+        + (int) ( ( value >>> shift ) - SUB_BUCKET_HALF );
+  }
+
+  private static long highestValueAt( int index ) {
+    if ( index < SUB_BUCKET_COUNT ) {
+      return index;
+    }
+    final int shift = ( index - SUB_BUCKET_COUNT ) / SUB_BUCKET_HALF + 1;
+    final long subBucket = ( index - SUB_BUCKET_COUNT ) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ( ( subBucket + 1 ) << shift ) - 1;
+  }
+}
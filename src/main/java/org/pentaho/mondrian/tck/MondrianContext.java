@@ -22,61 +22,164 @@
 package org.pentaho.mondrian.tck;
 
 import java.io.IOException;
-import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import mondrian.olap.MondrianProperties;
 import mondrian.olap.Util;
 import mondrian.rolap.RolapConnection;
-import mondrian.rolap.RolapUtil;
 
+import org.apache.log4j.Logger;
+import org.junit.Assert;
 import org.olap4j.CellSet;
 import org.olap4j.OlapConnection;
 import org.olap4j.OlapStatement;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
 
 public class MondrianContext extends Context {
 
+  private static final Logger LOGGER = Logger.getLogger( MondrianContext.class );
+  private static final int CANCEL_RELEASE_TIMEOUT_SECONDS = 60;
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+  private static final boolean INSTRUMENT_JDBC =
+      Boolean.parseBoolean( testProperties.getProperty( "jdbc.instrument", "false" ) );
+
+  static {
+    // Mondrian opens the JDBC connection of a catalog while it connects,
+    // before any statement could have loaded the instrumenting driver.
+    if ( INSTRUMENT_JDBC ) {
+      InstrumentingDriver.register();
+    }
+  }
+
+  /**
+   * Open connections, by connect string. Each holds a schema, so the cache
+   * is bounded by mondrian.connection.cache.size and
+   * mondrian.connection.cache.idle.seconds in test.properties.
+   *
+   * <p>An evicted context is only closed once no lease and no running
+   * verification holds it, see {@link #lease(String)}.
+   */
   private static final LoadingCache<String, MondrianContext> instances =
-      CacheBuilder.newBuilder().build( new CacheLoader<String, MondrianContext>() {
-        @Override
-        public MondrianContext load( String key ) throws Exception {
-          Connection connection = DriverManager.getConnection( key );
-          OlapConnection olapConnection = connection.unwrap( OlapConnection.class );
-          return new MondrianContext( olapConnection );
-        }
-      } );
+      CacheBuilder.newBuilder()
+        .maximumSize(
+          Long.parseLong( testProperties.getProperty( "mondrian.connection.cache.size", "32" ) ) )
+        .expireAfterAccess(
+          Long.parseLong( testProperties.getProperty( "mondrian.connection.cache.idle.seconds", "600" ) ),
+          TimeUnit.SECONDS )
+        .recordStats()
+        .removalListener( new RemovalListener<String, MondrianContext>() {
+          @Override
+          public void onRemoval( RemovalNotification<String, MondrianContext> notification ) {
+            LOGGER.info( "Evicting connection " + notification.getKey() + " (" + notification.getCause() + ")" );
+            notification.getValue().release();
+          }
+        } )
+        .build( new CacheLoader<String, MondrianContext>() {
+          @Override
+          public MondrianContext load( String key ) throws Exception {
+            // Opening the connection loads its schema, unless another
+            // connection already did.
+            final long startTime = System.nanoTime();
+            Connection connection =
+                DriverManager.getConnection( INSTRUMENT_JDBC ? instrumentJdbc( key ) : key );
+            OlapConnection olapConnection = connection.unwrap( OlapConnection.class );
+            BenchmarkResults.instance().recordLatency( "mondrian.connect", System.nanoTime() - startTime );
+            return new MondrianContext( olapConnection );
+          }
+        } );
+
+  private static final Path catalogDirectory = catalogDirectory();
 
+  /**
+   * Catalog files, by content. Each catalog is written once to
+   * mondrian.catalog.dir, under a name derived from a hash of its content,
+   * and reused by later runs. The connect string of a catalog, and the key
+   * of its schema, are thus the same from one run to the next.
+   */
   private static final LoadingCache<String, Path> catalogs =
       CacheBuilder.newBuilder().build( new CacheLoader<String, Path>() {
         @Override
         public Path load( String key ) throws Exception {
-          Path catalogFile = Files.createTempFile( "temp", ".xml" );
-          catalogFile.toFile().deleteOnExit();
-          try ( Writer writer = Files.newBufferedWriter( catalogFile, Charset.defaultCharset() ) ) {
-            writer.write( key );
+          final byte[] content = key.getBytes( UTF8 );
+          final Path catalogFile =
+              catalogDirectory.resolve( Hashing.sha256().hashBytes( content ).toString() + ".xml" );
+          if ( Files.exists( catalogFile ) ) {
+            return catalogFile;
+          }
+          // Write to a temporary file first, so that concurrent runs never
+          // read a partially written catalog.
+          Files.createDirectories( catalogDirectory );
+          final Path tempFile = Files.createTempFile( catalogDirectory, "catalog", ".tmp" );
+          try {
+            Files.write( tempFile, content );
+            try {
+              Files.move( tempFile, catalogFile, StandardCopyOption.ATOMIC_MOVE );
+            } catch ( AtomicMoveNotSupportedException e ) {
+              Files.move( tempFile, catalogFile, StandardCopyOption.REPLACE_EXISTING );
+            }
+          } finally {
+            Files.deleteIfExists( tempFile );
           }
           return catalogFile;
         }
       } );
 
+  /**
+   * Returns mondrian.catalog.dir, or target/catalogs if it is not set. The
+   * default is discarded by mvn clean; pointing the property outside the
+   * build directory keeps the catalogs, and with them their schema keys,
+   * from one build to the next.
+   */
+  private static Path catalogDirectory() {
+    final String property = testProperties.getProperty( "mondrian.catalog.dir", "" );
+    if ( property.trim().isEmpty() ) {
+      return Paths.get( "target", "catalogs" ).toAbsolutePath();
+    }
+    return Paths.get( property.trim() ).toAbsolutePath();
+  }
+
   OlapConnection olapConnection;
 
+  /**
+   * References to this context: one held by the connection cache until it
+   * evicts the context, plus one per lease and per running verification.
+   * The connection is closed when the last one is released.
+   */
+  private final AtomicInteger references = new AtomicInteger( 1 );
+
   private MondrianContext( final OlapConnection olapConnection ) {
     this.olapConnection = olapConnection;
   }
@@ -85,6 +188,19 @@ public class MondrianContext extends Context {
     return instances.get( connectionString );
   }
 
+  /**
+   * Returns the file the given catalog is written to.
+   */
+  static Path getCatalogFile( String catalog ) throws ExecutionException {
+    return catalogs.get( catalog );
+  }
+
+  /**
+   * Returns the context of the given catalog, opening its connection if
+   * needed. Once the connection cache evicts the context, it is closed as
+   * soon as no verification runs on it, so callers that keep a context
+   * between queries should {@link #lease(String)} it instead.
+   */
   public static MondrianContext forCatalog( String catalog ) throws IOException, ExecutionException {
     return forConnection(
         replaceCatalog( MondrianProperties.instance().TestConnectString.get(), catalogs.get( catalog ) ) );
@@ -99,33 +215,249 @@ public class MondrianContext extends Context {
             withPooling ) );
   }
 
+  /**
+   * Returns the context of the given catalog, kept open until
+   * {@link #release()} is called, even if the connection cache evicts it
+   * meanwhile. Benchmark states and other callers that keep a context for a
+   * whole run lease it.
+   */
+  public static MondrianContext lease( String catalog ) throws IOException, ExecutionException {
+    while ( true ) {
+      final MondrianContext context = forCatalog( catalog );
+      if ( context.retain() ) {
+        return context;
+      }
+      // Evicted and closed since it was fetched. The cache now opens a new one.
+    }
+  }
+
+  /**
+   * Takes a reference to this context, unless it is already closed.
+   */
+  private boolean retain() {
+    while ( true ) {
+      final int count = references.get();
+      if ( count == 0 ) {
+        return false;
+      }
+      if ( references.compareAndSet( count, count + 1 ) ) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Releases a context obtained by {@link #lease(String)}. The connection
+   * is closed once the cache has evicted the context and nothing else
+   * holds it.
+   */
+  public void release() {
+    if ( references.decrementAndGet() == 0 ) {
+      try {
+        olapConnection.close();
+      } catch ( SQLException e ) {
+        LOGGER.warn( "Error while closing connection.", e );
+      }
+    }
+  }
+
+  private void retainForVerify() {
+    if ( !retain() ) {
+      throw new IllegalStateException(
+          "This context was evicted from the connection cache and closed. "
+          + "Fetch it again with forCatalog, or lease it." );
+    }
+  }
+
+  /**
+   * Returns the statistics of the connection cache. Its load time is
+   * the time spent opening connections and loading their schemas.
+   */
+  public static CacheStats getConnectionCacheStats() {
+    return instances.stats();
+  }
+
+  /**
+   * Logs the hit rate, the number of connections opened and the time spent
+   * opening them.
+   */
+  public static void reportConnectionCache() {
+    final CacheStats stats = instances.stats();
+    LOGGER.info(
+        MessageFormat.format(
+            "Connection cache: {0} connections, {1,number,#.##}% hit rate, {2} loads ({3} failed),"
+            + " {4,number,#.##} ms loading on average, {5} evictions",
+            instances.size(),
+            stats.hitRate() * 100,
+            stats.loadCount(),
+            stats.loadExceptionCount(),
+            LatencyHistogram.toMillis( (long) stats.averageLoadPenalty() ),
+            stats.evictionCount() ) );
+  }
+
   public static MondrianContext defaultContext() throws IOException, ExecutionException {
     return forConnection( MondrianProperties.instance().TestConnectString.get() );
   }
 
-  public void verify( final MondrianExpectation expectation ) throws Exception {
+  public MondrianExecution verify( final MondrianExpectation expectation ) throws Exception {
+    retainForVerify();
+    try {
+      return verifyRetained( expectation );
+    } finally {
+      release();
+    }
+  }
+
+  private MondrianExecution verifyRetained( final MondrianExpectation expectation ) throws Exception {
+    if ( expectation.warmRuns > 0 ) {
+      return verifyColdAndWarm( expectation );
+    }
+    final MondrianExecution execution = execute( expectation, expectation.withFreshCache, true );
+    if ( !execution.isCanceled() ) {
+      final BenchmarkResults results = BenchmarkResults.instance();
+      results.recordLatency( "mdx.execute", execution.getNanos() );
+      if ( INSTRUMENT_JDBC ) {
+        results.recordLatency( "mdx.backend", execution.getBackendNanos() );
+        results.recordLatency( "mdx.engine", execution.getEngineNanos() );
+        for ( SqlTiming timing : execution.getSqlTimings() ) {
+          results.recordLatency( "mdx.sql.execute", timing.getExecuteNanos() );
+          results.recordLatency( "mdx.sql.fetch", timing.getFetchNanos() );
+        }
+      }
+    }
+    return execution;
+  }
+
+  /**
+   * Verifies the expectation on the executor shared by all contexts, so
+   * that a suite can have several queries in flight against the backend
+   * instead of waiting for each round trip in turn.
+   *
+   * <p>The verifications share this context's connection. An expectation
+   * with a fresh cache flushes the schema cache under the queries already
+   * in flight, so their SQL may differ from what they expect. Latencies
+   * are recorded under the test that is current when they complete, so a
+   * test should wait for its futures before it returns.
+   */
+  public CompletableFuture<MondrianExecution> verifyAsync( MondrianExpectation expectation ) {
+    return verifyAsync( expectation, asyncExecutor() );
+  }
 
-    if ( expectation.withFreshCache ) {
+  /**
+   * Verifies the expectation on the given executor.
+   */
+  public CompletableFuture<MondrianExecution> verifyAsync(
+      final MondrianExpectation expectation, Executor executor ) {
+    // Hold the context while the verification waits in the queue.
+    retainForVerify();
+    return submitAsync(
+        new Callable<MondrianExecution>() {
+          public MondrianExecution call() throws Exception {
+            return verifyRetained( expectation );
+          }
+        },
+        executor ).whenComplete(
+          new BiConsumer<MondrianExecution, Throwable>() {
+            public void accept( MondrianExecution execution, Throwable throwable ) {
+              release();
+            }
+          } );
+  }
+
+  /**
+   * Runs the query once right after flushing the schema cache, then again
+   * as many times as the expectation asks, and records the latency and
+   * the number of SQL statements of the cold and the warm runs.
+   */
+  private MondrianExecution verifyColdAndWarm( final MondrianExpectation expectation ) throws Exception {
+    final MondrianExecution cold = execute( expectation, true, true );
+    final List<MondrianExecution> warmRuns = new ArrayList<>();
+    final LatencyHistogram warmLatencies = new LatencyHistogram();
+    int warmSqlCount = 0;
+    for ( int i = 0; i < expectation.warmRuns; i++ ) {
+      final MondrianExecution warm = execute( expectation, false, false );
+      warmRuns.add( warm );
+      warmLatencies.recordValue( warm.getNanos() );
+      warmSqlCount = Math.max( warmSqlCount, warm.getSqlCount() );
+    }
+
+    final BenchmarkResults results = BenchmarkResults.instance();
+    results.recordLatency( "mdx.cold", cold.getNanos() );
+    results.recordLatencies( "mdx.warm", warmLatencies );
+    results.recordCount( "mdx.cold.sqlCount", cold.getSqlCount() );
+    results.recordCount( "mdx.warm.sqlCount", warmSqlCount );
+    LOGGER.info(
+        MessageFormat.format(
+            "Cold run took {0,number,#.##} ms and {1} SQL statements."
+            + " {2} warm runs took {3} and up to {4} SQL statements.",
+            LatencyHistogram.toMillis( cold.getNanos() ),
+            cold.getSqlCount(),
+            expectation.warmRuns,
+            warmLatencies.summary(),
+            warmSqlCount ) );
+
+    return new MondrianExecution(
+        false, cold.getNanos(), cold.getSqls(), cold.getSqlTimings(), -1, warmRuns, cold.getDigest() );
+  }
+
+  private MondrianExecution execute(
+      final MondrianExpectation expectation,
+      final boolean withFreshCache,
+      final boolean verifySqls ) throws Exception {
+
+    if ( withFreshCache ) {
       // Make sure to clear the schema cache first.
       olapConnection.unwrap( RolapConnection.class )
         .getCacheControl( null )
         .flushSchemaCache();
     }
 
-    final List<String> sqls = new ArrayList<>();
-    RolapUtil.ExecuteQueryHook existingHook = RolapUtil.getHook();
-    RolapUtil.setHook( sqlCollector( sqls ) );
-
     final OlapStatement statement = olapConnection.createStatement();
+    final SqlCapture capture = SqlCapture.start( statement );
+    try {
+      return execute( expectation, verifySqls, statement, capture );
+    } finally {
+      capture.stop();
+    }
+  }
+
+  private MondrianExecution execute(
+      final MondrianExpectation expectation,
+      final boolean verifySqls,
+      final OlapStatement statement,
+      final SqlCapture capture ) throws Exception {
+    final long startTime = System.nanoTime();
     if ( expectation.isExpectResultSet() ) {
       // some MDX queries (e.g. drillthrough) return ResultSet object
       ResultSet rs = statement.executeQuery( expectation.getQuery() );
-      RolapUtil.setHook( existingHook );
-      expectation.verify( rs, sqls, olapConnection.unwrap( RolapConnection.class ).getSchema().getDialect() );
+      final long nanos = System.nanoTime() - startTime;
+      final List<String> sqls = capture.getSqls();
+      try {
+        expectation.verifyResult( rs );
+      } finally {
+        // The rows are fetched while they are validated. Closing the
+        // result set completes the timing of its statement, so that SQL
+        // budgets can be checked.
+        rs.close();
+      }
+      if ( verifySqls ) {
+        expectation.verifySqls(
+            sqls, capture.getTimings(), olapConnection.unwrap( RolapConnection.class ).getSchema().getDialect() );
+      }
+      return new MondrianExecution( false, nanos, sqls, capture.getTimings(), -1 );
     } else {
       final CellSet cellSet;
-      if ( expectation.canBeRandomlyCanceled && Math.random() > 0.5 ) {
+      long cancelNanos = -1;
+      final CancelPoint cancelPoint = cancelPointFor( expectation );
+      if ( expectation.cancelAfterMillis >= 0 || cancelPoint != null ) {
         // We have to cancel this query.
+        if ( cancelPoint != null ) {
+          capture.holdAt(
+              cancelPoint,
+              expectation.cancelPoint != null ? expectation.cancelAtSql : 1,
+              CANCEL_RELEASE_TIMEOUT_SECONDS,
+              TimeUnit.SECONDS );
+        }
 
         // Create an executor.
         final ExecutorService executor = Util.getExecutorService(
@@ -137,48 +469,133 @@ public class MondrianContext extends Context {
             } );
 
         // Place the query on the executor thread.
-        executor.submit( new Callable<CellSet>() {
+        final Future<CellSet> future = executor.submit( new Callable<CellSet>() {
           @Override
           public CellSet call() throws Exception {
             return statement.executeOlapQuery( expectation.getQuery() );
           }
         } );
 
-        // Wait a bit.
-        Thread.sleep( 1000 );
-
-        // Now cancel the query.
-        try {
-          statement.cancel();
-          statement.close();
-        } catch ( Throwable t ) {
-          t.printStackTrace();
+        // Wait for the cancel point, or a bit.
+        final boolean completedFirst;
+        if ( cancelPoint != null ) {
+          completedFirst = !capture.awaitCancelPoint( future );
+        } else {
+          Thread.sleep( expectation.cancelAfterMillis );
+          completedFirst = future.isDone();
         }
 
-        cellSet = null;
+        if ( completedFirst ) {
+          // Nothing to cancel. Validate the result like any other.
+          try {
+            capture.resume();
+            cellSet = future.get();
+          } finally {
+            executor.shutdown();
+          }
+        } else {
+          // Now cancel the query, then let it go on from the cancel point.
+          final long cancelTime = System.nanoTime();
+          try {
+            statement.cancel();
+          } catch ( Throwable t ) {
+            t.printStackTrace();
+          } finally {
+            capture.resume();
+          }
+
+          // Measure how long the worker thread takes to be released.
+          CellSet completed = null;
+          try {
+            completed = future.get( CANCEL_RELEASE_TIMEOUT_SECONDS, TimeUnit.SECONDS );
+          } catch ( ExecutionException | CancellationException e ) {
+            // Expected. The query was canceled.
+          } catch ( TimeoutException e ) {
+            Assert.fail(
+                "Canceled query still running after " + CANCEL_RELEASE_TIMEOUT_SECONDS + " seconds: "
+                + expectation.getQuery() );
+          } finally {
+            executor.shutdown();
+          }
+          if ( completed == null ) {
+            cancelNanos = System.nanoTime() - cancelTime;
+            BenchmarkResults.instance().recordLatency( "mdx.cancel", cancelNanos );
+            if ( cancelPoint != null ) {
+              BenchmarkResults.instance().recordLatency(
+                  "mdx.cancel." + cancelPoint.name().toLowerCase(), cancelNanos );
+            }
+            try {
+              statement.close();
+            } catch ( Throwable t ) {
+              t.printStackTrace();
+            }
+          }
+          // A query that completed despite the cancel is validated too.
+          cellSet = completed;
+        }
       } else {
         // No random cancel. Just execute right on this thread.
         cellSet = statement.executeOlapQuery( expectation.getQuery() );
       }
 
-      RolapUtil.setHook( existingHook );
+      final long nanos = System.nanoTime() - startTime;
+      final List<String> sqls = capture.getSqls();
 
+      String digest = null;
       if ( cellSet != null ) {
-        expectation.verify(
-            cellSet,
-            sqls,
-            olapConnection.unwrap( RolapConnection.class ).getSchema().getDialect() );
+        digest = expectation.verifyResult( cellSet );
+        if ( verifySqls ) {
+          expectation.verifySqls(
+              sqls,
+              capture.getTimings(),
+              olapConnection.unwrap( RolapConnection.class ).getSchema().getDialect() );
+        }
       }
+      return new MondrianExecution(
+          cellSet == null,
+          nanos,
+          sqls,
+          capture.getTimings(),
+          cancelNanos,
+          Collections.<MondrianExecution>emptyList(),
+          digest );
     }
   }
 
-  private RolapUtil.ExecuteQueryHook sqlCollector( final List<String> sqls ) {
-    return new RolapUtil.ExecuteQueryHook() {
-      @Override
-      public void onExecuteQuery( String sql ) {
-        sqls.add( sql );
+  /**
+   * Returns the point at which to cancel the query: the one the
+   * expectation asks for, or, for a query that can be randomly canceled,
+   * one of those that can be detected, half of the times.
+   */
+  private static CancelPoint cancelPointFor( final MondrianExpectation expectation ) {
+    if ( expectation.cancelPoint != null ) {
+      if ( expectation.cancelPoint.requiresInstrumentation() && !INSTRUMENT_JDBC ) {
+        throw new IllegalStateException( expectation.cancelPoint + " requires jdbc.instrument." );
       }
-    };
+      return expectation.cancelPoint;
+    }
+    if ( !expectation.canBeRandomlyCanceled || Math.random() <= 0.5 ) {
+      return null;
+    }
+    final CancelPoint[] points = CancelPoint.values();
+    CancelPoint point;
+    do {
+      point = points[(int) ( Math.random() * points.length )];
+    } while ( point.requiresInstrumentation() && !INSTRUMENT_JDBC );
+    return point;
+  }
+
+  /**
+   * Makes the JDBC URL of a Mondrian connect string go through
+   * {@link InstrumentingDriver}.
+   */
+  static String instrumentJdbc( final String connectString ) {
+    if ( connectString.contains( InstrumentingDriver.URL_PREFIX ) ) {
+      return connectString;
+    }
+    return connectString.replaceFirst(
+        "(?i)([;:]\\s*Jdbc\\s*=\\s*[\"']?)",
+        "$1" + InstrumentingDriver.URL_PREFIX );
   }
 
   private static String replaceCatalog( final String connectString, final Path catalogFile ) {
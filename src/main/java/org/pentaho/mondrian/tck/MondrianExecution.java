@@ -0,0 +1,161 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how a {@link MondrianExpectation} was run by
+ * {@link MondrianContext#verify(MondrianExpectation)}.
+ */
+public class MondrianExecution {
+  private final boolean canceled;
+  private final long nanos;
+  private final List<String> sqls;
+  private final List<SqlTiming> sqlTimings;
+  private final long cancelNanos;
+  private final List<MondrianExecution> warmRuns;
+  private final String digest;
+
+  MondrianExecution(
+      boolean canceled, long nanos, List<String> sqls, List<SqlTiming> sqlTimings, long cancelNanos ) {
+    this( canceled, nanos, sqls, sqlTimings, cancelNanos, Collections.<MondrianExecution>emptyList() );
+  }
+
+  MondrianExecution(
+      boolean canceled,
+      long nanos,
+      List<String> sqls,
+      List<SqlTiming> sqlTimings,
+      long cancelNanos,
+      List<MondrianExecution> warmRuns ) {
+    this( canceled, nanos, sqls, sqlTimings, cancelNanos, warmRuns, null );
+  }
+
+  MondrianExecution(
+      boolean canceled,
+      long nanos,
+      List<String> sqls,
+      List<SqlTiming> sqlTimings,
+      long cancelNanos,
+      List<MondrianExecution> warmRuns,
+      String digest ) {
+    this.canceled = canceled;
+    this.nanos = nanos;
+    this.sqls = sqls;
+    this.sqlTimings = sqlTimings;
+    this.cancelNanos = cancelNanos;
+    this.warmRuns = warmRuns;
+    this.digest = digest;
+  }
+
+  /**
+   * Whether the query was canceled before it completed, in which case
+   * its results were not validated.
+   */
+  public boolean isCanceled() {
+    return canceled;
+  }
+
+  /**
+   * Returns how long the query took to execute, in nanoseconds, not
+   * counting the validation of its results. For an expectation measured
+   * cold and warm, this is the cold run.
+   */
+  public long getNanos() {
+    return nanos;
+  }
+
+  /**
+   * Returns how many SQL statements Mondrian issued while executing the
+   * query.
+   */
+  public int getSqlCount() {
+    return sqls.size();
+  }
+
+  /**
+   * Returns the SQL statements Mondrian issued while executing the query,
+   * in the order they were captured.
+   */
+  public List<String> getSqls() {
+    return sqls;
+  }
+
+  /**
+   * Returns the timings of the SQL statements Mondrian issued, if
+   * jdbc.instrument is enabled in test.properties. Otherwise, the list is
+   * empty.
+   */
+  public List<SqlTiming> getSqlTimings() {
+    return sqlTimings;
+  }
+
+  /**
+   * Returns the time spent in the JDBC driver, executing SQL statements and
+   * fetching their rows. Since Mondrian may run statements in parallel,
+   * this can exceed the latency of the query.
+   */
+  public long getBackendNanos() {
+    long backendNanos = 0;
+    for ( SqlTiming timing : sqlTimings ) {
+      backendNanos += timing.getBackendNanos();
+    }
+    return backendNanos;
+  }
+
+  /**
+   * Returns the part of the latency of the query not spent in the JDBC
+   * driver.
+   */
+  public long getEngineNanos() {
+    return Math.max( 0, nanos - getBackendNanos() );
+  }
+
+  /**
+   * Returns how long, in nanoseconds, the thread executing the query took
+   * to be released after the statement was canceled, or -1 if the query
+   * was not canceled or completed before the cancel.
+   */
+  public long getCancelNanos() {
+    return cancelNanos;
+  }
+
+  /**
+   * Returns the runs that followed the cold run, if the expectation was
+   * built with {@link MondrianExpectation.Builder#coldAndWarm(int)}.
+   */
+  public List<MondrianExecution> getWarmRuns() {
+    return warmRuns;
+  }
+
+  /**
+   * Returns the {@link CellSetDigest} of the result, if the expectation
+   * has a digest or was built with
+   * {@link MondrianExpectation.Builder#reportDigest()}, otherwise null.
+   * For an expectation measured cold and warm, this is the cold run.
+   */
+  public String getDigest() {
+    return digest;
+  }
+}
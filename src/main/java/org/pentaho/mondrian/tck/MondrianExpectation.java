@@ -26,31 +26,40 @@ import com.google.common.base.Optional;
 import mondrian.spi.Dialect;
 
 import org.olap4j.CellSet;
-import org.olap4j.layout.TraditionalCellSetFormatter;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class MondrianExpectation {
   private final String query;
   private final List<String> expectedSqls;
   private final Optional<String> result;
+  private final Optional<String> digest;
+  private final boolean reportDigest;
   private final boolean expectResultSet;
   private ResultSetValidator rsValidator;
   final boolean canBeRandomlyCanceled;
+  final int cancelAfterMillis;
+  final CancelPoint cancelPoint;
+  final int cancelAtSql;
   final boolean withFreshCache;
+  final int warmRuns;
+  private final int maxSqlStatements;
+  private final long maxRowsFetched;
+  private final int maxSqlTimeMillis;
 
   public MondrianExpectation(
       final String query,
       final List<String> expectedSqls,
       final String result,
+      final String digest,
       final boolean expectResultSet,
       final String[] columns,
       final boolean columnsPartial,
@@ -58,12 +67,29 @@ public class MondrianExpectation {
       final boolean partial,
       final int[] types,
       final boolean canBeRandomlyCanceled,
-      final boolean withFreshCache ) {
+      final int cancelAfterMillis,
+      final CancelPoint cancelPoint,
+      final int cancelAtSql,
+      final boolean withFreshCache,
+      final int warmRuns,
+      final int maxSqlStatements,
+      final long maxRowsFetched,
+      final int maxSqlTimeMillis,
+      final boolean reportDigest ) {
     this.query = query;
     this.expectedSqls = expectedSqls;
     this.canBeRandomlyCanceled = canBeRandomlyCanceled;
+    this.cancelAfterMillis = cancelAfterMillis;
+    this.cancelPoint = cancelPoint;
+    this.cancelAtSql = cancelAtSql;
     this.withFreshCache = withFreshCache;
+    this.warmRuns = warmRuns;
+    this.maxSqlStatements = maxSqlStatements;
+    this.maxRowsFetched = maxRowsFetched;
+    this.maxSqlTimeMillis = maxSqlTimeMillis;
     this.result = Optional.fromNullable( result );
+    this.digest = Optional.fromNullable( digest );
+    this.reportDigest = reportDigest;
     this.expectResultSet = expectResultSet;
     if ( this.expectResultSet ) {
       rsValidator = new ResultSetValidator( columns, columnsPartial, rows, partial, types );
@@ -79,24 +105,67 @@ public class MondrianExpectation {
   }
 
   public void verify( ResultSet rs, List<String> sqls, Dialect dialect ) throws Exception {
+    verify( rs, sqls, Collections.<SqlTiming>emptyList(), dialect );
+  }
+
+  public void verify( CellSet cellSet, List<String> sqls, Dialect dialect ) {
+    verify( cellSet, sqls, Collections.<SqlTiming>emptyList(), dialect );
+  }
+
+  /**
+   * Validates the result, the expected SQL and the SQL budgets, given the
+   * timings of the SQL statements measured by {@link InstrumentingDriver}.
+   */
+  public void verify( ResultSet rs, List<String> sqls, List<SqlTiming> timings, Dialect dialect ) throws Exception {
+    verifyResult( rs );
+    verifySqls( sqls, timings, dialect );
+  }
+
+  public void verify( CellSet cellSet, List<String> sqls, List<SqlTiming> timings, Dialect dialect ) {
+    verifyResult( cellSet );
+    verifySqls( sqls, timings, dialect );
+  }
+
+  /**
+   * Validates the rows and columns, but not the SQL. Used for warm runs,
+   * which are expected to be answered from the cache.
+   */
+  void verifyResult( ResultSet rs ) throws Exception {
     rsValidator.validateRows( rs );
     rsValidator.validateColumns( rs );
-    verifySqls( sqls, dialect );
   }
 
-  public void verify( CellSet cellSet, List<String> sqls, Dialect dialect ) {
+  /**
+   * Validates the cell set, but not the SQL.
+   *
+   * @return The digest of the cell set, if it was computed, otherwise null
+   */
+  String verifyResult( CellSet cellSet ) {
     if ( result.isPresent() ) {
-      assertEquals( result.get(), cellSetToString( cellSet ) );
+      CellSetComparator.assertEquals( result.get(), cellSet );
     }
-    verifySqls( sqls, dialect );
+    if ( !digest.isPresent() && !reportDigest ) {
+      return null;
+    }
+    final String actualDigest = CellSetDigest.digest( cellSet );
+    if ( digest.isPresent() ) {
+      assertEquals( "Digest of the result doesn't match.", digest.get(), actualDigest );
+    }
+    return actualDigest;
   }
 
   protected void verifySqls( List<String> sqls, Dialect dialect ) {
+    verifySqls( sqls, Collections.<SqlTiming>emptyList(), dialect );
+  }
+
+  protected void verifySqls( List<String> sqls, List<SqlTiming> timings, Dialect dialect ) {
     // This is  level 2 check
     if ( MondrianContext.getMondrianComplianceLevel() < 2 ) {
       return;
     }
 
+    verifySqlBudgets( sqls, timings );
+
     List<String> cleanSqls = new ArrayList<>();
     for ( String sql : sqls ) {
       sql = cleanLineEndings( sql );
@@ -122,20 +191,37 @@ public class MondrianExpectation {
     }
   }
 
-  private String cellSetToString( CellSet cellSet ) {
-    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
-    try {
-      final PrintWriter pw = new PrintWriter( stream );
-      new TraditionalCellSetFormatter().format( cellSet, pw );
-      pw.flush();
-    } finally {
-      try {
-        stream.close();
-      } catch ( IOException e ) {
-        e.printStackTrace();
-      }
+  private void verifySqlBudgets( List<String> sqls, List<SqlTiming> timings ) {
+    if ( maxSqlStatements >= 0 ) {
+      assertTrue(
+          "Expected at most " + maxSqlStatements + " SQL statements but " + sqls.size()
+          + " were executed:\n" + sqls,
+          sqls.size() <= maxSqlStatements );
+    }
+    if ( maxRowsFetched < 0 && maxSqlTimeMillis < 0 ) {
+      return;
+    }
+    if ( timings.isEmpty() && !sqls.isEmpty() ) {
+      fail( "SQL row and time budgets need the SQL statements to be timed. Set jdbc.instrument=true." );
+    }
+    long rowsFetched = 0;
+    long sqlNanos = 0;
+    for ( SqlTiming timing : timings ) {
+      rowsFetched += timing.getRowCount();
+      sqlNanos += timing.getBackendNanos();
+    }
+    if ( maxRowsFetched >= 0 ) {
+      assertTrue(
+          "Expected at most " + maxRowsFetched + " rows fetched but " + rowsFetched
+          + " were:\n" + timings,
+          rowsFetched <= maxRowsFetched );
+    }
+    if ( maxSqlTimeMillis >= 0 ) {
+      assertTrue(
+          "Expected at most " + maxSqlTimeMillis + " ms in SQL but "
+          + TimeUnit.NANOSECONDS.toMillis( sqlNanos ) + " ms were spent:\n" + timings,
+          sqlNanos <= TimeUnit.MILLISECONDS.toNanos( maxSqlTimeMillis ) );
     }
-    return stream.toString().replaceAll( "\r\n", "\n" );
   }
 
   private static String cleanLineEndings( String string ) {
@@ -158,6 +244,8 @@ public class MondrianExpectation {
 
   public static class Builder {
     private String result;
+    private String digest;
+    private boolean reportDigest;
     private List<String> sqls = new ArrayList<>();
     private String query;
     private String[] columns;
@@ -167,7 +255,14 @@ public class MondrianExpectation {
     private boolean partial = false;
     private boolean expectResultSet = false;
     private boolean canBeRandomlyCanceled = false;
+    private int cancelAfterMillis = -1;
+    private CancelPoint cancelPoint;
+    private int cancelAtSql;
     private boolean withFreshCache = false;
+    private int warmRuns = 0;
+    private int maxSqlStatements = -1;
+    private long maxRowsFetched = -1;
+    private int maxSqlTimeMillis = -1;
 
     private Builder() {
     }
@@ -182,6 +277,28 @@ public class MondrianExpectation {
       return this;
     }
 
+    /**
+     * Sets the expected digest of the result, as computed by
+     * {@link CellSetDigest#digest(org.olap4j.CellSet)}. Use it instead of
+     * {@link #result(String)} for results too large to be spelled out.
+     * <p>(optional)
+     */
+    public Builder digest( String digest ) {
+      this.digest = digest;
+      return this;
+    }
+
+    /**
+     * Sets the digest of the result to be computed and returned by
+     * {@link MondrianExecution#getDigest()}, even if no digest is expected,
+     * so that the expected digest of a new query can be written down.
+     * <p>(optional)
+     */
+    public Builder reportDigest() {
+      this.reportDigest = true;
+      return this;
+    }
+
     public Builder sql( String sql ) {
       sqls.add( sql );
       return this;
@@ -238,18 +355,104 @@ public class MondrianExpectation {
       return this;
     }
 
+    /**
+     * Sets the query to be canceled, half of the times, when its first SQL
+     * statement reaches a cancel point picked at random. A query that
+     * completes without reaching it, for example from the cache, is not
+     * canceled and its result is validated.
+     * <p>(optional)
+     */
     public Builder canBeRandomlyCanceled() {
       this.canBeRandomlyCanceled = true;
       return this;
     }
 
+    /**
+     * Sets the query to be canceled the given number of milliseconds after
+     * it starts. A query that completes before then is validated instead.
+     * <p>(optional)
+     */
+    public Builder cancelAfter( int millis ) {
+      this.cancelAfterMillis = millis;
+      return this;
+    }
+
+    /**
+     * Sets the query to be always canceled when its Nth SQL statement
+     * reaches the given point. The query is held there until it has been
+     * canceled, and the time it then takes to be released is recorded for
+     * that point. Usually combined with {@link #withFreshCache()}, since a
+     * query answered from the cache issues no SQL; such a query is not
+     * canceled, and its result is validated.
+     * <p>(optional)
+     *
+     * @param sqlNumber Number of the SQL statement, starting at 1
+     */
+    public Builder cancelAt( CancelPoint point, int sqlNumber ) {
+      if ( sqlNumber < 1 ) {
+        throw new IllegalArgumentException( "SQL statements are numbered from 1: " + sqlNumber );
+      }
+      this.cancelPoint = point;
+      this.cancelAtSql = sqlNumber;
+      return this;
+    }
+
     public Builder withFreshCache() {
       this.withFreshCache = true;
       return this;
     }
 
+    /**
+     * Sets the query to run once with a fresh cache, then the given number
+     * of times with the cache it populated. The latency and the number of
+     * SQL statements of both are recorded in the {@link BenchmarkResults}.
+     * Expected SQL is only checked on the cold run.
+     * <p>(optional)
+     */
+    public Builder coldAndWarm( int warmRuns ) {
+      this.warmRuns = warmRuns;
+      return this;
+    }
+
+    /**
+     * Sets the highest number of SQL statements the query may issue. Use it
+     * to catch native evaluation falling back to non-native, which issues
+     * more statements.
+     * <p>(optional)
+     */
+    public Builder maxSqlStatements( int maxSqlStatements ) {
+      this.maxSqlStatements = maxSqlStatements;
+      return this;
+    }
+
+    /**
+     * Sets the highest number of rows the query may fetch, over all its SQL
+     * statements. Requires jdbc.instrument.
+     * <p>(optional)
+     */
+    public Builder maxRowsFetched( long maxRowsFetched ) {
+      this.maxRowsFetched = maxRowsFetched;
+      return this;
+    }
+
+    /**
+     * Sets the highest time the query may spend executing SQL statements
+     * and fetching their rows. Requires jdbc.instrument.
+     * <p>(optional)
+     */
+    public Builder maxSqlTimeMillis( int maxSqlTimeMillis ) {
+      this.maxSqlTimeMillis = maxSqlTimeMillis;
+      return this;
+    }
+
     public MondrianExpectation build() {
-      return new MondrianExpectation( query, sqls, result, expectResultSet, columns, columnsPartial, rows, partial, types, canBeRandomlyCanceled, withFreshCache );
+      if ( warmRuns > 0 && ( canBeRandomlyCanceled || cancelAfterMillis >= 0 || cancelPoint != null ) ) {
+        throw new IllegalStateException( "A query measured cold and warm cannot be canceled." );
+      }
+      if ( cancelAfterMillis >= 0 && cancelPoint != null ) {
+        throw new IllegalStateException( "A query is canceled either after a delay or at a cancel point." );
+      }
+      return new MondrianExpectation( query, sqls, result, digest, expectResultSet, columns, columnsPartial, rows, partial, types, canBeRandomlyCanceled, cancelAfterMillis, cancelPoint, cancelAtSql, withFreshCache, warmRuns, maxSqlStatements, maxRowsFetched, maxSqlTimeMillis, reportDigest );
     }
 
   }
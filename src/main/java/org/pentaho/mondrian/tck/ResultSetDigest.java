@@ -0,0 +1,220 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Computes a compact digest of the rows of a {@link ResultSet}, so that
+ * full scans can be validated without keeping their rows in the test.
+ *
+ * <p>The digest has the form <code>rowCount:hash</code>. The hash covers
+ * the value of each column of each row, in order. Numbers are hashed as
+ * doubles, so that an integer gives the same digest whether the driver
+ * returns it as an INTEGER, a BIGINT or a DECIMAL. Dates, times and
+ * timestamps are hashed as milliseconds since the epoch, and booleans as
+ * such, since drivers print them differently. Other values are hashed as
+ * returned by {@link ResultSet#getString(int)}.
+ *
+ * <p>The rows are read once, without building a string for each row.
+ * {@link #unorderedDigest(ResultSet)} gives the same digest whatever the
+ * order of the rows, for drivers that return them in any order when the
+ * query has no ORDER BY.
+ */
+public class ResultSetDigest {
+  private static final int TEXT = 0;
+  private static final int NUMERIC = 1;
+  private static final int TEMPORAL = 2;
+  private static final int BOOLEAN = 3;
+
+  private ResultSetDigest() {
+  }
+
+  /**
+   * Reads the remaining rows of the result set and returns their digest.
+   */
+  public static String digest( ResultSet rs ) throws SQLException {
+    final int[] kinds = columnKinds( rs );
+    final Hasher hasher = Hashing.murmur3_128().newHasher();
+    long rowCount = 0;
+    while ( rs.next() ) {
+      rowCount++;
+      putRow( hasher, rs, kinds, null );
+    }
+    return rowCount + ":" + hasher.hash().toString();
+  }
+
+  /**
+   * Reads the remaining rows of the result set and returns a digest that
+   * doesn't depend on their order.
+   */
+  public static String unorderedDigest( ResultSet rs ) throws SQLException, IOException {
+    return unorderedDigest( rs, null );
+  }
+
+  /**
+   * Reads the remaining rows of the result set and returns a digest that
+   * doesn't depend on their order.
+   *
+   * <p>Each row is hashed on its own, and the hashes of the rows are
+   * added up. Unlike a xor, the sum changes when a row is duplicated.
+   *
+   * @param spill Writer to which each row is written as a line of text,
+   *        its values separated by '|' and printed as they are hashed, or
+   *        null
+   */
+  static String unorderedDigest( ResultSet rs, Writer spill ) throws SQLException, IOException {
+    final int[] kinds = columnKinds( rs );
+    final StringBuilder line = spill == null ? null : new StringBuilder();
+    long rowCount = 0;
+    long sum0 = 0;
+    long sum1 = 0;
+    while ( rs.next() ) {
+      rowCount++;
+      final Hasher hasher = Hashing.murmur3_128().newHasher();
+      if ( line != null ) {
+        line.setLength( 0 );
+      }
+      putRow( hasher, rs, kinds, line );
+      final byte[] hash = hasher.hash().asBytes();
+      final ByteBuffer buffer = ByteBuffer.wrap( hash ).order( ByteOrder.LITTLE_ENDIAN );
+      sum0 += buffer.getLong( 0 );
+      sum1 += buffer.getLong( 8 );
+      if ( line != null ) {
+        line.append( '\n' );
+        spill.append( line );
+      }
+    }
+    return rowCount + ":" + String.format( "%016x%016x", sum1, sum0 );
+  }
+
+  private static int[] columnKinds( ResultSet rs ) throws SQLException {
+    final ResultSetMetaData metaData = rs.getMetaData();
+    final int columnCount = metaData.getColumnCount();
+    final int[] kinds = new int[columnCount + 1];
+    for ( int j = 1; j <= columnCount; j++ ) {
+      kinds[j] = kind( metaData.getColumnType( j ) );
+    }
+    return kinds;
+  }
+
+  /**
+   * Hashes the values of the current row and, if line is not null,
+   * appends them to it as text.
+   */
+  private static void putRow( Hasher hasher, ResultSet rs, int[] kinds, StringBuilder line ) throws SQLException {
+    for ( int j = 1; j < kinds.length; j++ ) {
+      final Object text;
+      switch ( kinds[j] ) {
+        case NUMERIC: {
+          // Adding 0 turns -0.0 into 0.0.
+          final double value = rs.getDouble( j ) + 0d;
+          if ( rs.wasNull() ) {
+            hasher.putByte( (byte) 0 );
+            text = null;
+          } else {
+            hasher.putByte( (byte) 1 );
+            hasher.putDouble( value );
+            text = value;
+          }
+          break;
+        }
+        case TEMPORAL: {
+          final Timestamp value = rs.getTimestamp( j );
+          if ( value == null ) {
+            hasher.putByte( (byte) 0 );
+          } else {
+            hasher.putByte( (byte) 3 );
+            hasher.putLong( value.getTime() );
+          }
+          text = value;
+          break;
+        }
+        case BOOLEAN: {
+          final boolean value = rs.getBoolean( j );
+          if ( rs.wasNull() ) {
+            hasher.putByte( (byte) 0 );
+            text = null;
+          } else {
+            hasher.putByte( (byte) 4 );
+            hasher.putBoolean( value );
+            text = value;
+          }
+          break;
+        }
+        default: {
+          final String value = rs.getString( j );
+          if ( value == null ) {
+            hasher.putByte( (byte) 0 );
+          } else {
+            hasher.putByte( (byte) 2 );
+            hasher.putInt( value.length() );
+            hasher.putUnencodedChars( value );
+          }
+          text = value;
+        }
+      }
+      if ( line != null ) {
+        if ( j > 1 ) {
+          line.append( '|' );
+        }
+        line.append( text );
+      }
+    }
+    hasher.putChar( '\n' );
+  }
+
+  private static int kind( int type ) {
+    switch ( type ) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        return NUMERIC;
+      case Types.DATE:
+      case Types.TIME:
+      case Types.TIMESTAMP:
+        return TEMPORAL;
+      case Types.BOOLEAN:
+      case Types.BIT:
+        return BOOLEAN;
+      default:
+        return TEXT;
+    }
+  }
+}
@@ -26,14 +26,24 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Types;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ResultSetValidator {
   final String[] columns;
@@ -41,15 +51,49 @@ public class ResultSetValidator {
   final String[] rows;
   final boolean partial;
   final int[] types;
+  final String rowDigest;
+  final boolean unordered;
+  final Path spillDirectory;
 
   public ResultSetValidator(
       String[] columns, boolean columnsPartial,
       String[] rows, boolean partial, int[] types ) {
+    this( columns, columnsPartial, rows, partial, types, null );
+  }
+
+  /**
+   * @param rowDigest Expected {@link ResultSetDigest} of the rows, or null.
+   *        If set, the rows are validated against it rather than against
+   *        the expected rows.
+   */
+  public ResultSetValidator(
+      String[] columns, boolean columnsPartial,
+      String[] rows, boolean partial, int[] types, String rowDigest ) {
+    this( columns, columnsPartial, rows, partial, types, rowDigest, false, null );
+  }
+
+  /**
+   * @param unordered Whether the rows may come in any order. The expected
+   *        rows, or the rows hashed for the digest, are then compared as
+   *        multisets. With partial, the expected rows must all be found
+   *        among the rows of the result set.
+   * @param spillDirectory Directory where the rows are written when
+   *        validated against an unordered digest, or null. The file is
+   *        named after the digest of the rows and kept, so that the file
+   *        of a failing run can be diffed against that of a reference run.
+   */
+  public ResultSetValidator(
+      String[] columns, boolean columnsPartial,
+      String[] rows, boolean partial, int[] types, String rowDigest,
+      boolean unordered, Path spillDirectory ) {
     this.columns = columns;
     this.columnsPartial = columnsPartial;
     this.rows = rows;
     this.partial = partial;
     this.types = types;
+    this.rowDigest = rowDigest;
+    this.unordered = unordered;
+    this.spillDirectory = spillDirectory;
   }
 
   public void validateColumns( ResultSet rs ) throws Exception {
@@ -82,31 +126,57 @@ public class ResultSetValidator {
   }
 
   public void validateRows( ResultSet rs ) throws Exception {
+    if ( rowDigest != null ) {
+      validateRowDigest( rs );
+      return;
+    }
+
+    // Resolve everything that doesn't change from one row to the next
+    // once, so that the validation keeps up with the driver.
+    final int level = SqlContext.getSqlComplianceLevel();
+    final boolean checkTypes = types != null && level >= 3;
+    final ResultSetMetaData metaData = rs.getMetaData();
     final int nbCols =
         columnsPartial
           ? columns.length
-          : rs.getMetaData().getColumnCount();
-    final List<String> columnsList =
+          : metaData.getColumnCount();
+    final Set<String> columnsSet =
         columnsPartial
-          ? Arrays.asList( columns )
-          : new ArrayList<String>();
+          ? new HashSet<>( Arrays.asList( columns ) )
+          : Collections.<String>emptySet();
+    final boolean[] included = new boolean[nbCols + 1];
+    final boolean[] numeric = new boolean[nbCols + 1];
+    final String[] names = new String[nbCols + 1];
+    for ( int j = 1; j <= nbCols; j++ ) {
+      names[j] = metaData.getColumnName( j );
+      included[j] = !columnsPartial || columnsSet.contains( names[j].toLowerCase() );
+      numeric[j] = isNumeric( metaData.getColumnType( j ) );
+    }
+    final DecimalFormat numberFormat = new DecimalFormat();
+    final StringBuilder curRow = new StringBuilder();
+    final RowMultiset expectedRows = unordered && rows != null ? new RowMultiset( rows ) : null;
 
     int rowNum = -1;
 
     while ( rs.next() ) {
 
-      final StringBuilder curRow = new StringBuilder();
+      curRow.setLength( 0 );
 
-      // Check whether the RS has more rows but we were not expecting more
-      if ( rows != null && ++rowNum >= rows.length && !partial ) {
+      // Check whether the RS has more rows but we were not expecting more.
+      // Unordered rows are all read, then reported as unexpected.
+      if ( rows != null && ++rowNum >= rows.length && !partial && !unordered ) {
         fail( "ResultSet returned more rows than expected" );
       }
 
+      // Validate types
+      // Types are a level 3 check.
+      if ( checkTypes && rowNum <= 0 ) {
+        validateMetaType( rs );
+      }
+
       // Build a string representation of the row
       for ( int j = 1; j <= nbCols; j++ ) {
-        if ( columnsPartial
-            && !columnsList.contains(rs.getMetaData().getColumnName( j )
-                .toLowerCase() ) ) {
+        if ( !included[j] ) {
           continue;
         }
 
@@ -117,47 +187,34 @@ public class ResultSetValidator {
 
         final Object rawValue = rs.getObject( j );
 
-        // Validate types
-        // Types are a level 3 check.
-        if ( types != null
-            && SqlContext.getSqlComplianceLevel() >= 3 ) {
-          validateMetaType( rs );
-          validateType(rs.getMetaData().getColumnName( j ), rawValue,
-              types[j - 1] );
+        if ( checkTypes ) {
+          validateType( names[j], rawValue, types[j - 1] );
         }
 
         // Print the value to the buffer.
-        switch ( rs.getMetaData().getColumnType( j ) ) {
-          case Types.DOUBLE:
-          case Types.DECIMAL:
-          case Types.NUMERIC:
-          case Types.BIGINT:
-          case Types.INTEGER:
-          case Types.SMALLINT:
-            if ( rawValue == null ) {
-              curRow.append( "null" );
-            } else {
-              curRow.append( new DecimalFormat().format( rawValue ) );
-            }
-            break;
-          default:
-            curRow.append( String.valueOf( rawValue ) );
-        }
-
-
-        // If there are still rows and we're not in partial mode, that's bad
-        if ( rows != null
-            && ( !partial && rowNum > ( rows.length - 1 ) ) ) {
-          fail( "Expected number of rows doesn't match the result." );
+        if ( numeric[j] ) {
+          if ( rawValue == null ) {
+            curRow.append( "null" );
+          } else {
+            curRow.append( numberFormat.format( rawValue ) );
+          }
+        } else {
+          curRow.append( String.valueOf( rawValue ) );
         }
       }
 
       // Now validate that row
       // Row content is a level 2 check.
-      if ( SqlContext.getSqlComplianceLevel() >= 2 ) {
-        if ( rows != null ) {
-          assertEquals( "Row content doesn't match.", rows[rowNum],
-              curRow.toString() );
+      if ( level >= 2 ) {
+        if ( expectedRows != null ) {
+          expectedRows.remove( curRow.toString() );
+          // All the rows must be read to know which are missing.
+          continue;
+        } else if ( rows != null ) {
+          if ( !rows[rowNum].contentEquals( curRow ) ) {
+            assertEquals( "Row content doesn't match.", rows[rowNum],
+                curRow.toString() );
+          }
         } else {
           // There was no row defined. we bail now.
           break;
@@ -169,6 +226,129 @@ public class ResultSetValidator {
         }
       }
     }
+
+    if ( expectedRows != null && level >= 2 ) {
+      expectedRows.verify( partial );
+    }
+  }
+
+  /**
+   * Whether values of the given type are printed with a
+   * {@link DecimalFormat}.
+   */
+  private static boolean isNumeric( int type ) {
+    switch ( type ) {
+      case Types.DOUBLE:
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+      case Types.BIGINT:
+      case Types.INTEGER:
+      case Types.SMALLINT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Streams the rows once, hashing their values, and compares the result
+   * with the expected digest.
+   */
+  private void validateRowDigest( ResultSet rs ) throws Exception {
+    // Types are a level 3 check.
+    if ( types != null && SqlContext.getSqlComplianceLevel() >= 3 ) {
+      validateMetaType( rs );
+    }
+    // Row content is a level 2 check.
+    if ( SqlContext.getSqlComplianceLevel() < 2 ) {
+      return;
+    }
+    if ( !unordered ) {
+      assertEquals( "Digest of the rows doesn't match.", rowDigest, ResultSetDigest.digest( rs ) );
+      return;
+    }
+    if ( spillDirectory == null ) {
+      assertEquals(
+          "Unordered digest of the rows doesn't match.", rowDigest, ResultSetDigest.unorderedDigest( rs ) );
+      return;
+    }
+    Files.createDirectories( spillDirectory );
+    final Path tempFile = Files.createTempFile( spillDirectory, "rows-", ".tmp" );
+    final String actualDigest;
+    try ( Writer writer = Files.newBufferedWriter( tempFile, Charset.forName( "UTF-8" ) ) ) {
+      actualDigest = ResultSetDigest.unorderedDigest( rs, writer );
+    }
+    final Path spillFile = Files.move( tempFile, spillFile( actualDigest ), StandardCopyOption.REPLACE_EXISTING );
+    assertEquals(
+        "Unordered digest of the rows doesn't match. The rows were written to " + spillFile
+        + ". Sort it and diff it against " + spillFile( rowDigest ).getFileName()
+        + ", written by a reference run.",
+        rowDigest,
+        actualDigest );
+  }
+
+  /**
+   * Returns the file where the rows with the given unordered digest are
+   * written.
+   */
+  private Path spillFile( String digest ) {
+    return spillDirectory.resolve( "rows-" + digest.replace( ':', '-' ) + ".txt" );
+  }
+
+  /**
+   * Counts the expected rows that were not found yet, and the rows that
+   * were not expected.
+   */
+  private static class RowMultiset {
+    private static final int MAX_REPORTED = 10;
+    private final Map<String, int[]> counts = new HashMap<>();
+    private final List<String> unexpected = new ArrayList<>();
+    private int unexpectedCount;
+
+    RowMultiset( String[] rows ) {
+      for ( String row : rows ) {
+        int[] count = counts.get( row );
+        if ( count == null ) {
+          count = new int[1];
+          counts.put( row, count );
+        }
+        count[0]++;
+      }
+    }
+
+    void remove( String row ) {
+      final int[] count = counts.get( row );
+      if ( count != null && count[0] > 0 ) {
+        count[0]--;
+        return;
+      }
+      unexpectedCount++;
+      if ( unexpected.size() < MAX_REPORTED ) {
+        unexpected.add( row );
+      }
+    }
+
+    /**
+     * Fails if expected rows are missing or, unless the expected rows are
+     * only part of the result, if other rows were found.
+     */
+    void verify( boolean partial ) {
+      final List<String> missing = new ArrayList<>();
+      int missingCount = 0;
+      for ( Map.Entry<String, int[]> entry : counts.entrySet() ) {
+        for ( int i = 0; i < entry.getValue()[0]; i++ ) {
+          missingCount++;
+          if ( missing.size() < MAX_REPORTED ) {
+            missing.add( entry.getKey() );
+          }
+        }
+      }
+      if ( missingCount > 0 || ( !partial && unexpectedCount > 0 ) ) {
+        fail(
+            "Rows don't match, in any order. " + missingCount + " expected rows missing, for example "
+            + missing + ". " + unexpectedCount + " rows not expected, for example " + unexpected + "." );
+      }
+    }
   }
 
   private void validateMetaType( ResultSet rs ) throws Exception {
@@ -202,45 +382,55 @@ public class ResultSetValidator {
     if ( actual == null ) {
       return;
     }
-    switch ( expected ) {
+    final Class<?>[] expectedClasses = getObjectClasses( expected );
+    if ( expectedClasses == null ) {
+      throw new Exception( "Expected type check not implemented." );
+    }
+    checkType( colName, actual.getClass(), expectedClasses );
+  }
+
+  /**
+   * Returns the classes of the values that ResultSet.getObject may return
+   * for a column of the given JDBC type, or null if the type isn't checked.
+   */
+  static Class<?>[] getObjectClasses( int type ) {
+    switch ( type ) {
       case java.sql.Types.BIGINT:
-        checkType(colName, "Long", actual.getClass(), Long.class );
-        break;
+        return new Class<?>[] { Long.class };
 
       case java.sql.Types.DECIMAL:
-        checkType(colName, "Double / BigDecimal", actual.getClass(),
-            Double.class, BigDecimal.class );
-        break;
+        return new Class<?>[] { Double.class, BigDecimal.class };
 
       case java.sql.Types.BOOLEAN:
-        checkType(colName, "Boolean", actual.getClass(), Boolean.class );
-        break;
+        return new Class<?>[] { Boolean.class };
 
       case java.sql.Types.INTEGER:
       case java.sql.Types.SMALLINT:
-        checkType(colName, "Integer", actual.getClass(), Integer.class );
-        break;
+        return new Class<?>[] { Integer.class };
 
       case java.sql.Types.VARCHAR:
       case java.sql.Types.CHAR:
-        checkType(colName, "String", actual.getClass(), String.class );
-        break;
+        return new Class<?>[] { String.class };
 
       case java.sql.Types.DOUBLE:
-        checkType(colName, "Double", actual.getClass(), Double.class );
-        break;
+        return new Class<?>[] { Double.class };
 
       case java.sql.Types.TINYINT:
-        checkType(colName, "Byte", actual.getClass(), Byte.class );
-        break;
+        return new Class<?>[] { Byte.class };
 
       default:
-        throw new Exception( "Expected type check not implemented." );
+        return null;
     }
   }
 
-  private void checkType( String colName, String expectedType,
-      Class<?> actualTypeClass, Class<?>... expectedTypeClass ) {
+  private void checkType( String colName, Class<?> actualTypeClass, Class<?>... expectedTypeClass ) {
+    final StringBuilder expectedType = new StringBuilder();
+    for ( Class<?> expectedClass : expectedTypeClass ) {
+      if ( expectedType.length() > 0 ) {
+        expectedType.append( " / " );
+      }
+      expectedType.append( expectedClass.getSimpleName() );
+    }
     assertTrue("Wrong type for column " + colName + ", expected type "
         + expectedType + " but object class was " + actualTypeClass.getName(),
         Arrays.asList( expectedTypeClass ).contains( actualTypeClass ) );
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mondrian.rolap.RolapUtil;
+import mondrian.server.Locus;
+import mondrian.server.Statement;
+
+import org.apache.log4j.Logger;
+import org.olap4j.OlapStatement;
+
+/**
+ * Collects the SQL statements issued by Mondrian for one MDX statement,
+ * and their timings if {@link InstrumentingDriver} is used, while other
+ * statements run in parallel.
+ *
+ * <p>A single {@link RolapUtil.ExecuteQueryHook} and a single
+ * {@link InstrumentingDriver.Listener} are installed for the whole JVM.
+ * Mondrian runs SQL on its own threads, so they find the MDX statement a
+ * SQL statement belongs to from the {@link Locus} Mondrian pushes on those
+ * threads. Failing that, they fall back to the capture started on the
+ * current thread. SQL that can be traced to neither is not captured, rather
+ * than being credited to whichever statement happens to be running.
+ *
+ * <p>A capture can also hold the thread that reaches a {@link CancelPoint}
+ * until the statement has been canceled.
+ */
+class SqlCapture {
+  private static final Logger LOGGER = Logger.getLogger( SqlCapture.class );
+
+  private static final ConcurrentMap<Statement, SqlCapture> captures = new ConcurrentHashMap<>();
+  private static final ThreadLocal<SqlCapture> threadCapture = new ThreadLocal<>();
+
+  static {
+    RolapUtil.setHook(
+        new RolapUtil.ExecuteQueryHook() {
+          @Override
+          public void onExecuteQuery( String sql ) {
+            final SqlCapture capture = current();
+            if ( capture != null ) {
+              capture.sqls.add( sql );
+              capture.reached( CancelPoint.SQL_ISSUED );
+            }
+          }
+        } );
+    InstrumentingDriver.setListener(
+        new InstrumentingDriver.Listener() {
+          @Override
+          public void onFirstRow( String sql ) {
+            final SqlCapture capture = current();
+            if ( capture != null ) {
+              capture.reached( CancelPoint.SQL_FIRST_ROW );
+            }
+          }
+
+          @Override
+          public void onStatementCompleted( SqlTiming timing ) {
+            if ( LOGGER.isDebugEnabled() ) {
+              LOGGER.debug( timing );
+            }
+            final SqlCapture capture = current();
+            if ( capture != null ) {
+              capture.timings.add( timing );
+              capture.reached( CancelPoint.SQL_COMPLETED );
+            }
+          }
+        } );
+  }
+
+  private final Statement statement;
+  private final Queue<String> sqls = new ConcurrentLinkedQueue<>();
+  private final Queue<SqlTiming> timings = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger[] pointCounts = new AtomicInteger[CancelPoint.values().length];
+  private final CountDownLatch pointReached = new CountDownLatch( 1 );
+  private final CountDownLatch canceled = new CountDownLatch( 1 );
+  private volatile CancelPoint cancelPoint;
+  private volatile int cancelAtSql;
+  private volatile long holdTimeoutNanos;
+
+  private SqlCapture( Statement statement ) {
+    this.statement = statement;
+    for ( int i = 0; i < pointCounts.length; i++ ) {
+      pointCounts[i] = new AtomicInteger();
+    }
+  }
+
+  /**
+   * Starts capturing the SQL issued for the given statement. Must be
+   * followed by {@link #stop()}, on the same thread.
+   */
+  static SqlCapture start( OlapStatement olapStatement ) throws SQLException {
+    final SqlCapture capture = new SqlCapture( olapStatement.unwrap( Statement.class ) );
+    captures.put( capture.statement, capture );
+    threadCapture.set( capture );
+    return capture;
+  }
+
+  /**
+   * Starts capturing the timings of the SQL statements run directly over
+   * JDBC on the current thread, rather than by Mondrian. Must be followed
+   * by {@link #stop()}, on the same thread.
+   */
+  static SqlCapture startOnThread() {
+    final SqlCapture capture = new SqlCapture( null );
+    threadCapture.set( capture );
+    return capture;
+  }
+
+  void stop() {
+    canceled.countDown();
+    if ( statement != null ) {
+      captures.remove( statement, this );
+    }
+    if ( threadCapture.get() == this ) {
+      threadCapture.remove();
+    }
+  }
+
+  /**
+   * Returns the SQL statements captured so far, in the order they were
+   * issued.
+   */
+  List<String> getSqls() {
+    return new ArrayList<>( sqls );
+  }
+
+  /**
+   * Returns the timings of the SQL statements completed so far.
+   */
+  List<SqlTiming> getTimings() {
+    return new ArrayList<>( timings );
+  }
+
+  /**
+   * Makes the thread that reaches the given point, on the given SQL
+   * statement, wait until {@link #resume()} is called, or at most the
+   * given timeout. Must be called before the statement is executed.
+   *
+   * @param sqlNumber Number of the SQL statement, starting at 1
+   */
+  void holdAt( CancelPoint point, int sqlNumber, long timeout, TimeUnit unit ) {
+    this.cancelAtSql = sqlNumber;
+    this.holdTimeoutNanos = unit.toNanos( timeout );
+    this.cancelPoint = point;
+  }
+
+  /**
+   * Waits until a thread is held at the cancel point, or the query
+   * completes without reaching it.
+   *
+   * @return Whether the cancel point was reached
+   */
+  boolean awaitCancelPoint( Future<?> query ) throws InterruptedException {
+    while ( !pointReached.await( 10, TimeUnit.MILLISECONDS ) ) {
+      if ( query.isDone() ) {
+        return pointReached.getCount() == 0;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Lets the thread held at the cancel point go on.
+   */
+  void resume() {
+    canceled.countDown();
+  }
+
+  private void reached( CancelPoint point ) {
+    final int count = pointCounts[point.ordinal()].incrementAndGet();
+    if ( point != cancelPoint || count != cancelAtSql ) {
+      return;
+    }
+    pointReached.countDown();
+    try {
+      if ( !canceled.await( holdTimeoutNanos, TimeUnit.NANOSECONDS ) ) {
+        LOGGER.warn( "Statement was not canceled at " + point + " of SQL statement #" + count );
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static SqlCapture current() {
+    try {
+      final Locus locus = Locus.peek();
+      if ( locus != null && locus.execution != null ) {
+        final SqlCapture capture = captures.get( locus.execution.getMondrianStatement() );
+        if ( capture != null ) {
+          return capture;
+        }
+      }
+    } catch ( RuntimeException e ) {
+      // No locus on this thread.
+    }
+    return threadCapture.get();
+  }
+}
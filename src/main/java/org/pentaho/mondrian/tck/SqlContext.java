@@ -26,9 +26,13 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
 
@@ -40,7 +44,6 @@ import mondrian.spi.DialectManager;
 
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.log4j.Logger;
-import org.junit.Assert;
 
 public class SqlContext extends Context {
 
@@ -96,19 +99,39 @@ public class SqlContext extends Context {
     return new SqlContext( ds.getConnection() );
   }
 
-  public void verify( SqlExpectation expectation ) throws Exception {
+  public SqlExecution verify( SqlExpectation expectation ) throws Exception {
     if ( isStale.get() ) {
       throw new RuntimeException( "Stale SqlContext detected." );
     }
 
+    // The instrumenting driver reports the timing of the statement on this
+    // thread when the statement is closed, before the capture is stopped.
+    final SqlCapture capture = SqlCapture.startOnThread();
+    final SqlExecution execution;
+    try {
+      execution = execute( expectation );
+    } finally {
+      capture.stop();
+      dispose();
+    }
+    return new SqlExecution( execution.isCanceled(), execution.getCancelNanos(), capture.getTimings() );
+  }
+
+  private SqlExecution execute( SqlExpectation expectation ) throws Exception {
     try ( final Statement statement = connection.createStatement() ) {
 
-      long startTime = System.currentTimeMillis();
-      if ( expectation.cancelTimeout >= 0 && Math.random() > 0.5 ) {
+      // Holds 0 while the query runs, then either the time at which it was
+      // canceled or -1 if it completed first.
+      final AtomicLong cancelTime = new AtomicLong();
+      ScheduledFuture<Void> canceler = null;
+      if ( expectation.cancelTimeout >= 0 && ( expectation.alwaysCancel || Math.random() > 0.5 ) ) {
         // This means that this query must be interrupted in N seconds.
-        executor.schedule(
+        canceler = executor.schedule(
             new Callable<Void>() {
               public Void call() throws Exception {
+                if ( !cancelTime.compareAndSet( 0, System.nanoTime() ) ) {
+                  return null;
+                }
                 try {
                   LOGGER.info( "Canceling SQL query" );
                   statement.cancel();
@@ -122,22 +145,72 @@ public class SqlContext extends Context {
             expectation.cancelTimeout,
             TimeUnit.MILLISECONDS );
       }
-      final ResultSet rs = expectation.query.getData( connection, statement );
 
-      if ( expectation.cancelTimeout >= 0 ) {
-        if ( System.currentTimeMillis() - startTime < expectation.cancelTimeout ) {
-          Assert.fail( "Query canceled after it finished." );
+      final long startNanos = System.nanoTime();
+      final ResultSet rs;
+      try {
+        rs = expectation.query.getData( connection, statement );
+      } catch ( Exception e ) {
+        final long canceledAt = cancelTime.get();
+        if ( canceledAt <= 0 ) {
+          throw e;
         }
-        Assert.fail( "Query should have been canceled." );
+        // The query was released by the cancel. Measure how long it took.
+        final long cancelNanos = System.nanoTime() - canceledAt;
+        BenchmarkResults.instance().recordLatency( "sql.cancel", cancelNanos );
+        return new SqlExecution( true, cancelNanos );
+      }
+      final long returnedNanos = System.nanoTime();
+      BenchmarkResults.instance().recordLatency( "sql.execute", returnedNanos - startNanos );
+
+      if ( canceler != null ) {
+        canceler.cancel( false );
+        // The canceler may still have fired after the query returned, in
+        // which case the cancel lands while the rows are read. If it fired
+        // before, the driver ignored it, as most do for a cancel that
+        // precedes the execution, and the query completed before the cancel.
+        cancelTime.compareAndSet( 0, -1 );
       }
 
-      expectation.verify( rs );
-
-    } finally {
-      dispose();
+      try {
+        expectation.verify( rs );
+      } catch ( Exception | AssertionError e ) {
+        final long canceledAt = cancelTime.get();
+        if ( canceledAt <= 0 ) {
+          throw e;
+        }
+        // The cancel cut the rows short.
+        final long cancelNanos = System.nanoTime() - canceledAt;
+        BenchmarkResults.instance().recordLatency( "sql.cancel", cancelNanos );
+        return new SqlExecution( true, cancelNanos );
+      }
+      return new SqlExecution( false, -1 );
     }
   }
 
+  /**
+   * Verifies the expectation on the executor shared by all contexts, so
+   * that a suite can have several queries in flight against the backend
+   * instead of waiting for each round trip in turn. As with
+   * {@link #verify(SqlExpectation)}, the context is disposed afterwards.
+   */
+  public CompletableFuture<SqlExecution> verifyAsync( SqlExpectation expectation ) {
+    return verifyAsync( expectation, asyncExecutor() );
+  }
+
+  /**
+   * Verifies the expectation on the given executor.
+   */
+  public CompletableFuture<SqlExecution> verifyAsync( final SqlExpectation expectation, Executor executor ) {
+    return submitAsync(
+        new Callable<SqlExecution>() {
+          public SqlExecution call() throws Exception {
+            return verify( expectation );
+          }
+        },
+        executor );
+  }
+
   public void dispose() throws Exception {
     isStale.set( true );
     connection.close();
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how a {@link SqlExpectation} was run by
+ * {@link SqlContext#verify(SqlExpectation)}.
+ */
+public class SqlExecution {
+  private final boolean canceled;
+  private final long cancelNanos;
+  private final List<SqlTiming> sqlTimings;
+
+  SqlExecution( boolean canceled, long cancelNanos ) {
+    this( canceled, cancelNanos, Collections.<SqlTiming>emptyList() );
+  }
+
+  SqlExecution( boolean canceled, long cancelNanos, List<SqlTiming> sqlTimings ) {
+    this.canceled = canceled;
+    this.cancelNanos = cancelNanos;
+    this.sqlTimings = sqlTimings;
+  }
+
+  /**
+   * Whether the query was canceled before it completed, in which case
+   * its results were not validated.
+   */
+  public boolean isCanceled() {
+    return canceled;
+  }
+
+  /**
+   * Returns how long, in nanoseconds, the query kept the calling thread
+   * after Statement.cancel() was called, or -1 if it was not canceled.
+   */
+  public long getCancelNanos() {
+    return cancelNanos;
+  }
+
+  /**
+   * Returns the timings of the statement, if the context was opened with a
+   * URL wrapped by {@link InstrumentingDriver#instrument(String)}, or an
+   * empty list otherwise.
+   */
+  public List<SqlTiming> getSqlTimings() {
+    return sqlTimings;
+  }
+}
@@ -21,6 +21,7 @@
  ******************************************************************************/
 package org.pentaho.mondrian.tck;
 
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
@@ -42,8 +43,12 @@ public class SqlExpectation {
   final String[] rows;
   final boolean partial;
   final int[] types;
+  final String rowDigest;
+  final boolean unordered;
+  final Path spillDirectory;
   List<Function<Statement, Void>> statementModifiers;
   final int cancelTimeout;
+  final boolean alwaysCancel;
   final ResultSetValidator validator;
 
   public SqlExpectation(
@@ -54,7 +59,11 @@ public class SqlExpectation {
       String[] rows,
       boolean partial,
       int cancelTimeout,
-      final List<Function<Statement, Void>> statementModifiers ) {
+      boolean alwaysCancel,
+      final List<Function<Statement, Void>> statementModifiers,
+      String rowDigest,
+      boolean unordered,
+      Path spillDirectory ) {
 
     this.query = query;
     this.columns = columns;
@@ -63,8 +72,14 @@ public class SqlExpectation {
     this.rows = rows;
     this.partial = partial;
     this.cancelTimeout = cancelTimeout;
+    this.alwaysCancel = alwaysCancel;
     this.statementModifiers = statementModifiers;
-    this.validator = new ResultSetValidator( columns, columnsPartial, rows, partial, types );
+    this.rowDigest = rowDigest;
+    this.unordered = unordered;
+    this.spillDirectory = spillDirectory;
+    this.validator =
+        new ResultSetValidator(
+          columns, columnsPartial, rows, partial, types, rowDigest, unordered, spillDirectory );
   }
 
   public void verify( ResultSet rs ) throws Exception {
@@ -85,7 +100,11 @@ public class SqlExpectation {
     private String[] rows;
     private int[] types;
     private int cancelTimeout = -1;
+    private boolean alwaysCancel = false;
     private boolean partial = false;
+    private String rowDigest;
+    private boolean unordered = false;
+    private Path spillDirectory;
     private List<Function<Statement, Void>> statementModifiers = new ArrayList<>();
 
     private Builder() {
@@ -174,6 +193,41 @@ public class SqlExpectation {
       return this;
     }
 
+    /**
+     * Sets the expected digest of the rows, as computed by
+     * {@link ResultSetDigest#digest(ResultSet)}. Use it instead of
+     * {@link #rows(String[])} to validate all the rows of a large result,
+     * which are then read once without being kept in memory.
+     * <p>(optional)
+     */
+    public Builder rowDigest( String rowDigest ) {
+      this.rowDigest = rowDigest;
+      return this;
+    }
+
+    /**
+     * Sets the rows to be compared in any order, for queries without an
+     * ORDER BY on drivers that return rows in no particular order. The
+     * expected rows are compared as a multiset. A row digest must then be
+     * computed by {@link ResultSetDigest#unorderedDigest(ResultSet)}.
+     * <p>(optional)
+     */
+    public Builder unordered() {
+      this.unordered = true;
+      return this;
+    }
+
+    /**
+     * Sets a directory where the rows validated against an unordered row
+     * digest are written, to a file named after their digest. The files of
+     * a reference run can then be diffed against those of a failing one.
+     * <p>(optional)
+     */
+    public Builder spillRowsTo( Path spillDirectory ) {
+      this.spillDirectory = spillDirectory;
+      return this;
+    }
+
     /**
      * adds a function that will be run for the statement before execution
      */
@@ -182,13 +236,29 @@ public class SqlExpectation {
       return this;
     }
 
+    /**
+     * Sets the query to be canceled half of the time, the given number of
+     * milliseconds after it starts.
+     * <p>(optional)
+     */
     public Builder cancelTimeout( int to ) {
       this.cancelTimeout = to;
       return this;
     }
 
+    /**
+     * Sets the query to be always canceled, the given number of
+     * milliseconds after it starts.
+     * <p>(optional)
+     */
+    public Builder cancelAfter( int millis ) {
+      this.cancelTimeout = millis;
+      this.alwaysCancel = true;
+      return this;
+    }
+
     public SqlExpectation build() {
-      return new SqlExpectation( query, columns, columnsPartial, types, rows, partial, cancelTimeout, statementModifiers );
+      return new SqlExpectation( query, columns, columnsPartial, types, rows, partial, cancelTimeout, alwaysCancel, statementModifiers, rowDigest, unordered, spillDirectory );
     }
   }
 
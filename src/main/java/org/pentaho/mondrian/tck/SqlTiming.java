@@ -0,0 +1,89 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+/**
+ * Timings of a SQL statement issued by Mondrian, as measured by
+ * {@link InstrumentingDriver}.
+ */
+public class SqlTiming {
+  private final String sql;
+  private final long executeNanos;
+  private final long firstRowNanos;
+  private final long fetchNanos;
+  private final long rowCount;
+
+  SqlTiming( String sql, long executeNanos, long firstRowNanos, long fetchNanos, long rowCount ) {
+    this.sql = sql;
+    this.executeNanos = executeNanos;
+    this.firstRowNanos = firstRowNanos;
+    this.fetchNanos = fetchNanos;
+    this.rowCount = rowCount;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * Returns how long the call executing the statement took.
+   */
+  public long getExecuteNanos() {
+    return executeNanos;
+  }
+
+  /**
+   * Returns the time from the start of the execution until the first row
+   * was fetched, or -1 if the statement returned no row.
+   */
+  public long getFirstRowNanos() {
+    return firstRowNanos;
+  }
+
+  /**
+   * Returns the time spent fetching rows from the result set.
+   */
+  public long getFetchNanos() {
+    return fetchNanos;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Returns the time spent in the driver, executing the statement and
+   * fetching its rows.
+   */
+  public long getBackendNanos() {
+    return executeNanos + fetchNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "execute=" + LatencyHistogram.toMillis( executeNanos ) + "ms"
+      + " firstRow=" + LatencyHistogram.toMillis( firstRowNanos ) + "ms"
+      + " fetch=" + LatencyHistogram.toMillis( fetchNanos ) + "ms"
+      + " rows=" + rowCount
+      + " sql=" + sql;
+  }
+}
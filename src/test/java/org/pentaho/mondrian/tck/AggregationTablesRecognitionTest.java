@@ -30,7 +30,7 @@ import java.sql.Statement;
 
 import static org.pentaho.mondrian.tck.MondrianExpectation.newBuilder;
 
-public class AggregationTablesRecognitionTest {
+public class AggregationTablesRecognitionTest extends TestBase {
   @Test
   public void testGetTablesJdbc() throws Exception {
     final SqlExpectation expectation =
@@ -21,18 +21,40 @@
  ******************************************************************************/
 package org.pentaho.mondrian.tck;
 
+import mondrian.rolap.RolapConnection;
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Types;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.pentaho.mondrian.tck.SqlExpectation.newBuilder;
 
-public class AggregationTest {
+public class AggregationTest extends TestBase {
 
   public static final String QUERY = "select "
       + "  [Measures].[Unit Sales] as unit_sales on 0 "
       + "  from Sales";
 
+  /**
+   * Digest of all the columns of sales_fact_1997, sorted by all of them,
+   * as computed by {@link ResultSetDigest#digest} on the reference
+   * FoodMart database.
+   */
+  static final String SALES_FACT_1997_DIGEST = "86837:e97d5d07945848702e9a52ed27bb3579";
+
   /**
    * This test verifies that we can use SUM aggregator
    */
@@ -59,6 +81,205 @@ public class AggregationTest {
     MondrianContext.forCatalog( FoodMartCatalogs.FLAT_WITH_CUSTOMER ).verify( expectation );
   }
 
+  /**
+   * This test verifies that once a query ran with a fresh cache, running it
+   * again does not issue any SQL.
+   */
+  @Test
+  public void testSumMondrianColdAndWarm() throws Exception {
+    MondrianExpectation expectation = MondrianExpectation.newBuilder()
+        .query( QUERY )
+        .result( getResult( "266,773" ) )
+        .sql( getSql( "sum" ) )
+        .coldAndWarm( 5 )
+        .build();
+    MondrianExecution execution =
+        MondrianContext.forCatalog( FoodMartCatalogs.FLAT_WITH_CUSTOMER ).verify( expectation );
+    assertTrue( execution.getSqlCount() > 0 );
+    assertEquals( 5, execution.getWarmRuns().size() );
+    for ( MondrianExecution warmRun : execution.getWarmRuns() ) {
+      assertEquals( 0, warmRun.getSqlCount() );
+    }
+  }
+
+  /**
+   * This test verifies that the SQL statements Mondrian issues are timed,
+   * and that their time is part of the latency of the query.
+   */
+  @Test
+  public void testSumMondrianSqlTimings() throws Exception {
+    Assume.assumeTrue( Boolean.parseBoolean( Context.testProperties.getProperty( "jdbc.instrument" ) ) );
+    MondrianExpectation expectation = MondrianExpectation.newBuilder()
+        .withFreshCache()
+        .query( QUERY )
+        .result( getResult( "266,773" ) )
+        .build();
+    MondrianExecution execution =
+        MondrianContext.forCatalog( FoodMartCatalogs.FLAT_WITH_CUSTOMER ).verify( expectation );
+    assertFalse( execution.getSqlTimings().isEmpty() );
+    long rowCount = 0;
+    for ( SqlTiming timing : execution.getSqlTimings() ) {
+      rowCount += timing.getRowCount();
+    }
+    assertTrue( rowCount > 0 );
+    assertTrue( execution.getBackendNanos() > 0 );
+  }
+
+  /**
+   * This test verifies that the SQL assertions of queries running in
+   * parallel each see the SQL of their own query.
+   *
+   * <p>The schema cache is flushed once, before the threads start, so that
+   * no thread flushes it under the queries of the others. Each catalog has
+   * its own cache, hence the first run of each thread issues its SQL and
+   * checks it, including that none of the other aggregators' SQL was
+   * captured with it; the following runs come from the cache and must
+   * capture no SQL at all.
+   */
+  @Test
+  public void testConcurrentSqlCapture() throws Exception {
+    final String[] aggregators = { "sum", "min", "max", "count" };
+    final String[] results = { "266,773", "1", "6", "86,837" };
+    final MondrianContext[] contexts = new MondrianContext[aggregators.length];
+    for ( int i = 0; i < aggregators.length; i++ ) {
+      contexts[i] =
+          MondrianContext.forCatalog(
+            FoodMartCatalogs.FLAT_WITH_CUSTOMER.replace(
+              "aggregator=\"sum\"", "aggregator=\"" + aggregators[i] + "\"" ) );
+    }
+    contexts[0].olapConnection.unwrap( RolapConnection.class )
+      .getCacheControl( null )
+        .flushSchemaCache();
+    final ExecutorService executor = Executors.newFixedThreadPool( aggregators.length );
+    try {
+      final List<Future<Void>> futures = new ArrayList<>();
+      for ( int i = 0; i < aggregators.length; i++ ) {
+        final MondrianContext context = contexts[i];
+        final String aggregator = aggregators[i];
+        final MondrianExpectation coldExpectation = MondrianExpectation.newBuilder()
+            .query( QUERY )
+            .result( getResult( results[i] ) )
+            .sql( getSql( aggregators[i] ) )
+            .build();
+        final MondrianExpectation warmExpectation = MondrianExpectation.newBuilder()
+            .query( QUERY )
+            .result( getResult( results[i] ) )
+            .build();
+        futures.add( executor.submit( new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            final MondrianExecution cold = context.verify( coldExpectation );
+            for ( String sql : cold.getSqls() ) {
+              final String unquoted = sql.replaceAll( "[`\"]", "" );
+              for ( String other : aggregators ) {
+                assertFalse(
+                    "The " + aggregator + " statement captured SQL of the " + other + " statement:\n" + sql,
+                    !other.equals( aggregator )
+                      && unquoted.contains( other + "(sales_fact_1997.unit_sales)" ) );
+              }
+            }
+            for ( int run = 1; run < 10; run++ ) {
+              assertEquals(
+                  "The warm " + aggregator + " statement captured SQL",
+                  0, context.verify( warmExpectation ).getSqlCount() );
+            }
+            return null;
+          }
+        } ) );
+      }
+      for ( Future<Void> future : futures ) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * This test verifies that several expectations can be in flight at
+   * once through verifyAsync, on both the SQL and the MDX paths.
+   */
+  @Test
+  public void testAsyncVerify() throws Exception {
+    final String[] aggregators = { "sum", "min", "max", "count" };
+    final String[] results = { "266,773", "1", "6", "86,837" };
+    final List<CompletableFuture<?>> futures = new ArrayList<>();
+    for ( int i = 0; i < aggregators.length; i++ ) {
+      futures.add(
+          SqlContext.defaultContext().verifyAsync(
+            newBuilder()
+              .query( "select " + aggregators[i] + "(unit_sales) agg_sales from sales_fact_1997" )
+              .columns( "agg_sales" )
+              .rows( results[i] )
+              .build() ) );
+      futures.add(
+          MondrianContext.forCatalog(
+            FoodMartCatalogs.FLAT_WITH_CUSTOMER.replace(
+              "aggregator=\"sum\"", "aggregator=\"" + aggregators[i] + "\"" ) )
+            .verifyAsync(
+              MondrianExpectation.newBuilder()
+                .query( QUERY )
+                .result( getResult( results[i] ) )
+                .build() ) );
+    }
+    CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[futures.size()] ) ).get();
+  }
+
+  /**
+   * This test verifies that a full scan of the fact table can be validated
+   * against the digest of its rows, as computed on the reference FoodMart
+   * database.
+   */
+  @Test
+  public void testFullScanRowDigest() throws Exception {
+    SqlContext.defaultContext().verify(
+        newBuilder()
+          .query(
+            "select product_id, time_id, customer_id, promotion_id, store_id,"
+            + " store_sales, store_cost, unit_sales from sales_fact_1997"
+            + " order by product_id, time_id, customer_id, promotion_id, store_id,"
+            + " store_sales, store_cost, unit_sales" )
+          .rowDigest( SALES_FACT_1997_DIGEST )
+          .build() );
+  }
+
+  /**
+   * This test verifies that rows returned without an ORDER BY can be
+   * validated in any order.
+   */
+  @Test
+  public void testUnorderedRows() throws Exception {
+    SqlContext.defaultContext().verify(
+        newBuilder()
+          .query( "select store_id, sum(unit_sales) from sales_fact_1997 group by store_id" )
+          .rows(
+            "24|25,635", "2|2,237", "23|11,491", "3|24,576", "22|2,203", "6|21,333", "17|35,257",
+            "7|25,663", "16|23,591", "11|26,079", "15|25,011", "13|41,580", "14|2,117" )
+          .unordered()
+          .build() );
+  }
+
+  /**
+   * This test verifies that rows returned in any order can be validated
+   * against their unordered digest, as computed on the reference FoodMart
+   * database, and that they are written to a file named after it.
+   */
+  @Test
+  public void testUnorderedRowDigest() throws Exception {
+    final String digest = "86837:08a375c9b8b9f25961e5e3a1381038d0";
+    final Path spillDirectory = Paths.get( "target", "spill" );
+    SqlContext.defaultContext().verify(
+        newBuilder()
+          .query(
+            "select product_id, time_id, customer_id, promotion_id, store_id,"
+            + " store_sales, store_cost, unit_sales from sales_fact_1997" )
+          .rowDigest( digest )
+          .unordered()
+          .spillRowsTo( spillDirectory )
+          .build() );
+    assertTrue( Files.exists( spillDirectory.resolve( "rows-" + digest.replace( ':', '-' ) + ".txt" ) ) );
+  }
+
   /**
    * This test verifies that we can use MIN aggregator
    */
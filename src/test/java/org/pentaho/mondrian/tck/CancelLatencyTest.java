@@ -0,0 +1,164 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.text.MessageFormat;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/**
+ * Measures how long it takes, once a query is canceled, for the thread
+ * running it to be released. Slow cancels tie up threads when users
+ * abandon their queries.
+ *
+ * <p>Each query is canceled after each delay of a grid, several times, and
+ * the latencies are logged and recorded in the benchmark results for each
+ * delay. Since the results are keyed by JDBC driver, runs against different
+ * drivers can be compared.
+ *
+ * <p>MDX queries are also canceled at each {@link CancelPoint}, which tells
+ * which phase of Mondrian's execution is slow to respond to a cancel.
+ *
+ * <p>The suite takes several minutes, so it only runs when
+ * benchmark.suites is set.
+ */
+public class CancelLatencyTest extends TestBase {
+  private static final Logger LOGGER = Logger.getLogger( CancelLatencyTest.class );
+
+  /**
+   * Delays, in milliseconds, after which the queries are canceled.
+   */
+  static final int[] CANCEL_DELAYS = { 0, 10, 50, 100, 500, 1000, 2000 };
+
+  static final int RUNS_PER_DELAY = 10;
+
+  /**
+   * SQL statements, numbered from 1, at which the queries are canceled.
+   */
+  static final int[] CANCEL_AT_SQLS = { 1, 2 };
+
+  static final String MDX_QUERY =
+      "select "
+      + "  non empty TopCount([customer].[customer].[customer id].members,5,[Measures].[Unit Sales]) on 0,"
+      + "  [Measures].[Unit Sales] on 1 "
+      + "  from Sales";
+
+  @Test
+  public void testMdxCancelLatency() throws Exception {
+    assumeBenchmarkSuites();
+    final MondrianContext context = MondrianContext.forCatalog( FoodMartCatalogs.FLAT_WITH_CUSTOMER );
+    for ( int delay : CANCEL_DELAYS ) {
+      final LatencyHistogram latencies = new LatencyHistogram();
+      int completed = 0;
+      for ( int run = 0; run < RUNS_PER_DELAY; run++ ) {
+        final MondrianExecution execution = context.verify(
+            MondrianExpectation.newBuilder()
+              .withFreshCache()
+              .query( MDX_QUERY )
+              .cancelAfter( delay )
+              .build() );
+        if ( execution.isCanceled() ) {
+          latencies.recordValue( execution.getCancelNanos() );
+        } else {
+          completed++;
+        }
+      }
+      report( "mdx", delay, latencies, completed );
+    }
+  }
+
+  @Test
+  public void testMdxCancelAtPointLatency() throws Exception {
+    assumeBenchmarkSuites();
+    final MondrianContext context = MondrianContext.forCatalog( FoodMartCatalogs.FLAT_WITH_CUSTOMER );
+    final boolean instrumented = Boolean.parseBoolean( Context.testProperties.getProperty( "jdbc.instrument" ) );
+    for ( CancelPoint point : CancelPoint.values() ) {
+      if ( point.requiresInstrumentation() && !instrumented ) {
+        continue;
+      }
+      for ( int sqlNumber : CANCEL_AT_SQLS ) {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        int completed = 0;
+        for ( int run = 0; run < RUNS_PER_DELAY; run++ ) {
+          final MondrianExecution execution = context.verify(
+              MondrianExpectation.newBuilder()
+                .withFreshCache()
+                .query( MDX_QUERY )
+                .cancelAt( point, sqlNumber )
+                .build() );
+          if ( execution.isCanceled() ) {
+            latencies.recordValue( execution.getCancelNanos() );
+          } else {
+            completed++;
+          }
+        }
+        LOGGER.info(
+            MessageFormat.format(
+                " mdx canceled at {0} of SQL #{1}: {2} released in {3}, {4} never reached it",
+                point,
+                sqlNumber,
+                latencies.getTotalCount(),
+                latencies.summary(),
+                completed ) );
+        BenchmarkResults.instance().recordLatencies(
+            "mdx.cancel." + point.name().toLowerCase() + ".sql" + sqlNumber, latencies );
+      }
+    }
+  }
+
+  @Test
+  public void testSqlCancelLatency() throws Exception {
+    assumeBenchmarkSuites();
+    for ( int delay : CANCEL_DELAYS ) {
+      final LatencyHistogram latencies = new LatencyHistogram();
+      int completed = 0;
+      for ( int run = 0; run < RUNS_PER_DELAY; run++ ) {
+        final SqlExecution execution = SqlContext.defaultContext().verify(
+            SqlExpectation.newBuilder()
+              .query(
+                "select customer_id, product_id, sum(unit_sales) from sales_fact_1997 "
+                  + "group by customer_id, product_id" )
+              .cancelAfter( delay )
+              .build() );
+        if ( execution.isCanceled() ) {
+          latencies.recordValue( execution.getCancelNanos() );
+        } else {
+          completed++;
+        }
+      }
+      report( "sql", delay, latencies, completed );
+    }
+  }
+
+  private static void report( String path, int delay, LatencyHistogram latencies, int completed ) {
+    LOGGER.info(
+        MessageFormat.format(
+            " {0} canceled after {1} ms: {2} released in {3}, {4} completed before the cancel",
+            path,
+            delay,
+            latencies.getTotalCount(),
+            latencies.summary(),
+            completed ) );
+    BenchmarkResults.instance().recordLatencies( path + ".cancel." + delay + "ms", latencies );
+  }
+}
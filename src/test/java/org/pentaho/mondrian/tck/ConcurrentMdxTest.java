@@ -21,8 +21,11 @@
  ******************************************************************************/
 package org.pentaho.mondrian.tck;
 
+import java.nio.file.Paths;
 import java.util.List;
 
+import org.junit.Test;
+
 public class ConcurrentMdxTest extends TestBase {
 
   static final QueryAndResult[] mdxQueries = new QueryAndResult[]{
@@ -111,13 +114,50 @@ public class ConcurrentMdxTest extends TestBase {
           + "Row #12: 25,635\n" )
   };
 
-  /*
-   * This test is disabled for now. It isn't deterministic and needs more work.
+  /**
+   * Seed of the workload replayed by the concurrent tests. Keep it
+   * unchanged to compare the throughput of different Mondrian builds.
    */
-  // @Test
+  static final long WORKLOAD_SEED = 1997L;
+
+  /**
+   * Half of the queries of this workload are canceled after a second, so
+   * whether they complete depends on the speed of the backend. The tests
+   * replaying it only run with benchmark.suites.
+   */
+  static final SeededWorkload workload =
+      new SeededWorkload( WORKLOAD_SEED, mdxQueries, 0.5, 1000 );
+
+  @Test
   public void testConcurrentValidatingQueriesInRandomOrderAndPool() throws Exception {
+    assumeBenchmarkSuites();
+    final List<Throwable> failures =
+        ConcurrentValidatingMdxQueryRunner.runSeededTest( 5, 50, workload, true, true, mdxQueries );
+    if ( failures.size() > 0 ) {
+      // Just throw the first one.
+      throw new Exception( failures.get( 0 ) );
+    }
+  }
+
+  @Test
+  public void testConcurrentValidatingQueriesInRandomOrderNoPool() throws Exception {
+    assumeBenchmarkSuites();
+    final List<Throwable> failures =
+        ConcurrentValidatingMdxQueryRunner.runSeededTest( 5, 50, workload, true, false, mdxQueries );
+    if ( failures.size() > 0 ) {
+      // Just throw the first one.
+      throw new Exception( failures.get( 0 ) );
+    }
+  }
+
+  @Test
+  public void testConcurrentValidatingWorkloadFile() throws Exception {
+    final QueryAndResult[] workloadQueries =
+        WorkloadLoader.load(
+          Paths.get( getClass().getResource( "/workloads/foodmart-mix.workload" ).toURI() ) );
     final List<Throwable> failures =
-        ConcurrentValidatingMdxQueryRunner.runTest( 5, 60, true, true, true, mdxQueries );
+        ConcurrentValidatingMdxQueryRunner.runSeededTest(
+          5, 20, new SeededWorkload( WORKLOAD_SEED, workloadQueries, 0, -1 ), true, true, workloadQueries );
     if ( failures.size() > 0 ) {
       // Just throw the first one.
       throw new Exception( failures.get( 0 ) );
@@ -125,12 +165,44 @@ public class ConcurrentMdxTest extends TestBase {
   }
 
   /*
-   * This test is disabled for now. It isn't deterministic and needs more work.
+   * Measures latencies under a constant arrival rate rather than checking
+   * compliance, so it only runs with benchmark.suites.
    */
-  // @Test
-  public void testConcurrentValidatingQueriesInRandomOrderNoPool() throws Exception {
+  @Test
+  public void testOpenLoopValidatingQueriesInRandomOrder() throws Exception {
+    assumeBenchmarkSuites();
+    final List<Throwable> failures =
+        OpenLoopMdxQueryRunner.runTest( 20, 10, 60, true, true, true, mdxQueries );
+    if ( failures.size() > 0 ) {
+      // Just throw the first one.
+      throw new Exception( failures.get( 0 ) );
+    }
+  }
+
+  /*
+   * Measures how Mondrian's thread pools cope with thousands of users
+   * rather than checking compliance, so it only runs with benchmark.suites.
+   */
+  @Test
+  public void testThousandsOfSimulatedUsers() throws Exception {
+    assumeBenchmarkSuites();
+    final List<Throwable> failures =
+        VirtualUserMdxQueryRunner.runTest( 2000, 60, true, true, true, mdxQueries );
+    if ( failures.size() > 0 ) {
+      // Just throw the first one.
+      throw new Exception( failures.get( 0 ) );
+    }
+  }
+
+  /*
+   * Measures capacity rather than compliance, and takes several minutes,
+   * so it only runs with benchmark.suites.
+   */
+  @Test
+  public void testSaturation() throws Exception {
+    assumeBenchmarkSuites();
     final List<Throwable> failures =
-        ConcurrentValidatingMdxQueryRunner.runTest( 5, 60, true, true, false, mdxQueries );
+        SaturationFinder.runTest( 10, 30, 2000, 256, true, mdxQueries );
     if ( failures.size() > 0 ) {
       // Just throw the first one.
       throw new Exception( failures.get( 0 ) );
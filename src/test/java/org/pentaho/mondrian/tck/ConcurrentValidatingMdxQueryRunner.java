@@ -23,11 +23,14 @@ package org.pentaho.mondrian.tck;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import mondrian.rolap.RolapConnection;
 
 import org.apache.log4j.Logger;
+import org.pentaho.mondrian.tck.QueryStatistics.Outcome;
 import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
 
 public class ConcurrentValidatingMdxQueryRunner extends Thread {
@@ -40,9 +43,13 @@ public class ConcurrentValidatingMdxQueryRunner extends Thread {
   private int mRunCount;
   private int mSuccessCount;
   private boolean mRandomQueries;
+  private int mIterations;
+  private SeededWorkload.Schedule schedule;
 
   private QueryAndResult[] mdxQueries;
+  private WorkloadMix mix;
   private boolean usePooling;
+  private final QueryStatistics statistics;
 
   /**
    * Runs concurrent queries without flushing cache. This constructor
@@ -59,15 +66,57 @@ public class ConcurrentValidatingMdxQueryRunner extends Thread {
       boolean useRandomQuery,
       boolean usePooling,
       QueryAndResult[] queriesAndResults ) {
+    this(
+        numSeconds, useRandomQuery, usePooling, queriesAndResults,
+        new QueryStatistics( queriesAndResults ) );
+  }
+
+  /**
+   * Runs concurrent queries and records their latencies in the given
+   * statistics, which can be shared among many runners.
+   */
+  ConcurrentValidatingMdxQueryRunner(
+      int numSeconds,
+      boolean useRandomQuery,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults,
+      QueryStatistics statistics ) {
     this.mdxQueries = queriesAndResults;
+    this.mix = new WorkloadMix( queriesAndResults );
     this.mRunTime = numSeconds * 1000;
     this.mRandomQueries = useRandomQuery;
     this.usePooling = usePooling;
+    this.statistics = statistics;
+  }
+
+  /**
+   * Runs queries following a seeded schedule, so that the same sequence
+   * of queries and cancels can be replayed.
+   *
+   * @param numSeconds Running time, used when numIterations is 0
+   * @param numIterations Number of queries to run, or 0 to run until
+   *        the time expires
+   * @param schedule The sequence of queries and cancels of this runner
+   * @param queriesAndResults The array of pairs of query and expected result
+   */
+  ConcurrentValidatingMdxQueryRunner(
+      int numSeconds,
+      int numIterations,
+      SeededWorkload.Schedule schedule,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults,
+      QueryStatistics statistics ) {
+    this.mdxQueries = queriesAndResults;
+    this.mRunTime = numSeconds * 1000;
+    this.mIterations = numIterations;
+    this.schedule = schedule;
+    this.usePooling = usePooling;
+    this.statistics = statistics;
   }
 
   /**
-   * Runs a number of queries until time expires. For each iteration,
-   * if cache is to be flushed, do it before running the query.
+   * Runs a number of queries until time expires, or until the number of
+   * iterations is reached if there is one.
    */
   public void run() {
     mStartTime = System.currentTimeMillis();
@@ -75,35 +124,49 @@ public class ConcurrentValidatingMdxQueryRunner extends Thread {
     try {
       int queryIndex = -1;
 
-      while ( System.currentTimeMillis() - mStartTime < mRunTime ) {
+      while ( mIterations > 0
+          ? mRunCount < mIterations
+          : System.currentTimeMillis() - mStartTime < mRunTime ) {
+        long queryStart = 0;
         try {
-          if ( mRandomQueries ) {
-            queryIndex =
-              (int) ( Math.random() * mdxQueries.length );
+          int cancelAfterMillis = -1;
+          if ( schedule != null ) {
+            SeededWorkload.Step step = schedule.next();
+            queryIndex = step.queryIndex;
+            cancelAfterMillis = step.cancelAfterMillis;
+          } else if ( mRandomQueries ) {
+            queryIndex = mix.pick( Math.random() );
           } else {
             queryIndex = mRunCount % mdxQueries.length;
           }
 
           mRunCount++;
 
-          MondrianExpectation expectation = MondrianExpectation.newBuilder()
-              .query( mdxQueries[queryIndex].query )
-              .result( mdxQueries[queryIndex].result )
-              .canBeRandomlyCanceled()
-              .build();
-          MondrianContext
-            .forCatalog( FoodMartCatalogs.FLAT_WITH_FEW_DIMS, usePooling )
-            .verify( expectation );
+          queryStart = System.nanoTime();
+          Outcome outcome =
+              schedule != null
+                ? runQuery( mdxQueries[queryIndex], usePooling, cancelAfterMillis )
+                : runQuery( mdxQueries[queryIndex], usePooling );
+          statistics.record( queryIndex, outcome, System.nanoTime() - queryStart );
 
           mSuccessCount++;
 
         } catch ( Throwable e ) {
+          if ( queryStart != 0 ) {
+            statistics.record( queryIndex, Outcome.FAILURE, System.nanoTime() - queryStart );
+          }
           mExceptions.add(
               new Exception(
                 "Exception occurred in iteration " + mRunCount
                 + " of thread " + Thread.currentThread().getName(),
                 e ) );
         }
+
+        // An interrupted think stops the thread, without counting against
+        // the query.
+        if ( queryIndex >= 0 ) {
+          thinkAfter( mdxQueries[queryIndex] );
+        }
       }
       mStopTime = System.currentTimeMillis();
     } catch ( Throwable e ) {
@@ -111,6 +174,61 @@ public class ConcurrentValidatingMdxQueryRunner extends Thread {
     }
   }
 
+  /**
+   * Pauses the current thread for the think time of the given query, as
+   * a user would before sending the next one.
+   */
+  static void thinkAfter( QueryAndResult queryAndResult ) throws InterruptedException {
+    if ( queryAndResult.thinkTimeMillis > 0 ) {
+      Thread.sleep( queryAndResult.thinkTimeMillis );
+    }
+  }
+
+  /**
+   * Runs a single query of the workload and validates its result.
+   *
+   * @return {@link Outcome#CANCEL} if the query was randomly canceled,
+   *         {@link Outcome#SUCCESS} otherwise
+   * @throws Exception if the query fails or its result is wrong
+   */
+  static Outcome runQuery( QueryAndResult queryAndResult, boolean usePooling ) throws Exception {
+    MondrianExpectation expectation = MondrianExpectation.newBuilder()
+        .query( queryAndResult.query )
+        .result( queryAndResult.result )
+        .digest( queryAndResult.digest )
+        .canBeRandomlyCanceled()
+        .build();
+    MondrianExecution execution =
+        MondrianContext
+          .forCatalog( queryAndResult.catalog, usePooling )
+          .verify( expectation );
+    return execution.isCanceled() ? Outcome.CANCEL : Outcome.SUCCESS;
+  }
+
+  /**
+   * Runs a single query of the workload and validates its result, unless
+   * it is canceled.
+   *
+   * @param cancelAfterMillis Milliseconds after which to cancel the
+   *        query, or -1 to let it complete
+   */
+  static Outcome runQuery(
+      QueryAndResult queryAndResult,
+      boolean usePooling,
+      int cancelAfterMillis ) throws Exception {
+    MondrianExpectation expectation = MondrianExpectation.newBuilder()
+        .query( queryAndResult.query )
+        .result( queryAndResult.result )
+        .digest( queryAndResult.digest )
+        .cancelAfter( cancelAfterMillis )
+        .build();
+    MondrianExecution execution =
+        MondrianContext
+          .forCatalog( queryAndResult.catalog, usePooling )
+          .verify( expectation );
+    return execution.isCanceled() ? Outcome.CANCEL : Outcome.SUCCESS;
+  }
+
   /**
    * Prints result of this test run.
    */
@@ -149,22 +267,107 @@ public class ConcurrentValidatingMdxQueryRunner extends Thread {
 
     ConcurrentValidatingMdxQueryRunner[] runners =
       new ConcurrentValidatingMdxQueryRunner[numThreads];
-    List<Throwable> allExceptions = new ArrayList<Throwable>();
-
-    MondrianContext ctx =
-        MondrianContext.forCatalog( FoodMartCatalogs.FLAT_WITH_FEW_DIMS, usePooling );
-    ctx.olapConnection.unwrap( RolapConnection.class )
-      .getCacheControl( null )
-        .flushSchemaCache();
+    QueryStatistics statistics = new QueryStatistics( queriesAndResults );
 
     for ( int idx = 0; idx < runners.length; idx++ ) {
       runners[idx] = new ConcurrentValidatingMdxQueryRunner(
         runTimeInSeconds,
         randomQueries,
         usePooling,
-        queriesAndResults );
+        queriesAndResults,
+        statistics );
     }
+    return runAll( runners, statistics, printReport, usePooling );
+  }
 
+  /**
+   * Creates and runs concurrent threads following the schedules of a
+   * seeded workload. Each thread runs the same number of queries, so two
+   * runs with the same seed issue exactly the same queries and cancels,
+   * and their throughput can be compared.
+   *
+   * @param numThreads Number of concurrent threads
+   * @param iterationsPerThread Number of queries each thread runs
+   * @param workload The seeded workload giving the schedule of each thread
+   * @param printReport Whether to print report
+   * @param queriesAndResults Array of pairs of query and expected result
+   * @return The list of failures
+   */
+  static List<Throwable> runSeededTest(
+      int numThreads,
+      int iterationsPerThread,
+      SeededWorkload workload,
+      boolean printReport,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults ) throws Exception {
+
+    ConcurrentValidatingMdxQueryRunner[] runners =
+      new ConcurrentValidatingMdxQueryRunner[numThreads];
+    QueryStatistics statistics = new QueryStatistics( queriesAndResults );
+
+    for ( int idx = 0; idx < runners.length; idx++ ) {
+      runners[idx] = new ConcurrentValidatingMdxQueryRunner(
+        0,
+        iterationsPerThread,
+        workload.forThread( idx ),
+        usePooling,
+        queriesAndResults,
+        statistics );
+    }
+    if ( printReport ) {
+      LOGGER.info( " Replaying seeded workload " + workload.getSeed() );
+    }
+    return runAll( runners, statistics, printReport, usePooling );
+  }
+
+  /**
+   * Flushes the schema cache of each catalog used by the given queries.
+   */
+  static void flushSchemaCaches( QueryAndResult[] queriesAndResults, boolean usePooling ) throws Exception {
+    final Set<String> catalogs = new LinkedHashSet<>();
+    for ( QueryAndResult queryAndResult : queriesAndResults ) {
+      catalogs.add( queryAndResult.catalog );
+    }
+    for ( String catalog : catalogs ) {
+      MondrianContext ctx = MondrianContext.forCatalog( catalog, usePooling );
+      ctx.olapConnection.unwrap( RolapConnection.class )
+        .getCacheControl( null )
+          .flushSchemaCache();
+    }
+  }
+
+  private static List<Throwable> runAll(
+      ConcurrentValidatingMdxQueryRunner[] runners,
+      QueryStatistics statistics,
+      boolean printReport,
+      boolean usePooling ) throws Exception {
+    List<Throwable> allExceptions = new ArrayList<Throwable>();
+
+    flushSchemaCaches( runners[0].mdxQueries, usePooling );
+
+    long elapsedTime = startAndJoin( runners, allExceptions );
+    statistics.publish( "concurrent", elapsedTime );
+
+    if ( printReport ) {
+      for ( int idx = 0; idx < runners.length; idx++ ) {
+        runners[idx].report();
+      }
+      statistics.report( LOGGER, elapsedTime );
+      MondrianContext.reportConnectionCache();
+    }
+    return allExceptions;
+  }
+
+  /**
+   * Starts the given runners, waits for all of them to finish and collects
+   * their failures.
+   *
+   * @return The wall clock duration of the run, in milliseconds
+   */
+  static long startAndJoin(
+      ConcurrentValidatingMdxQueryRunner[] runners,
+      List<Throwable> allExceptions ) {
+    long startTime = System.currentTimeMillis();
     for ( int idx = 0; idx < runners.length; idx++ ) {
       runners[idx].start();
     }
@@ -176,13 +379,11 @@ public class ConcurrentValidatingMdxQueryRunner extends Thread {
         e.printStackTrace();
       }
     }
+    long elapsedTime = System.currentTimeMillis() - startTime;
 
     for ( int idx = 0; idx < runners.length; idx++ ) {
       allExceptions.addAll( runners[idx].mExceptions );
-      if ( printReport ) {
-        runners[idx].report();
-      }
     }
-    return allExceptions;
+    return elapsedTime;
   }
 }
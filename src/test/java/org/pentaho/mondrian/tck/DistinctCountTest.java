@@ -28,7 +28,7 @@ import java.sql.Types;
 
 import org.junit.Test;
 
-public class DistinctCountTest {
+public class DistinctCountTest extends TestBase {
 
   @Test
   public void testSingleColumnSQL() throws Exception {
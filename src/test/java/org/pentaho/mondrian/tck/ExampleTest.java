@@ -27,7 +27,7 @@ import mondrian.olap.MondrianProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ExampleTest {
+public class ExampleTest extends TestBase {
   private static final Logger logger = LoggerFactory.getLogger( ExampleTest.class );
 
   public void testExampleSelectFromSales() throws Exception {
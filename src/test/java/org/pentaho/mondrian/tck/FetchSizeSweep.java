@@ -0,0 +1,241 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import mondrian.olap.MondrianProperties;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+
+/**
+ * Runs the same SQL query with each of a range of JDBC fetch sizes, to find
+ * the one at which the driver fetches rows the fastest.
+ *
+ * <p>The fetch size, and the maximum number of rows if any, are set through
+ * {@link SqlExpectation.Builder#modifyStatement(Function)}. The connection
+ * goes through {@link InstrumentingDriver}, whatever jdbc.instrument says,
+ * so that each run gives the time to the first row and the time spent in
+ * the driver fetching rows. The rows are checked against the digest of a
+ * first, unmeasured run with the driver's default fetch size, which also
+ * warms up the database.
+ *
+ * <p>For each fetch size, records in the benchmark results the rows
+ * fetched per second, the latencies to the first row, and the peak heap
+ * usage of the client.
+ */
+class FetchSizeSweep {
+  private static final Logger LOGGER = Logger.getLogger( FetchSizeSweep.class );
+
+  private final String name;
+  private final String query;
+  private final boolean unordered;
+  private final int maxRows;
+  private final int[] fetchSizes;
+  private final int runs;
+  private final List<Step> steps = new ArrayList<>();
+  private Step best;
+
+  /**
+   * @param name Prefix of the metrics recorded in the benchmark results
+   * @param query SQL query to run
+   * @param unordered Whether the query returns its rows in no particular
+   *        order
+   * @param maxRows Maximum number of rows to fetch, or 0 for all of them
+   * @param fetchSizes Fetch sizes to try. 0 leaves the driver's default.
+   * @param runs Number of runs with each fetch size
+   */
+  FetchSizeSweep( String name, String query, boolean unordered, int maxRows, int[] fetchSizes, int runs ) {
+    if ( unordered && maxRows > 0 ) {
+      throw new IllegalArgumentException( "The first rows of an unordered query are not reproducible." );
+    }
+    this.name = name;
+    this.query = query;
+    this.unordered = unordered;
+    this.maxRows = maxRows;
+    this.fetchSizes = fetchSizes;
+    this.runs = runs;
+  }
+
+  void run() throws Exception {
+    final String url = InstrumentingDriver.instrument( MondrianProperties.instance().FoodmartJdbcURL.get() );
+    final String digest = digest( url );
+    final BenchmarkResults results = BenchmarkResults.instance();
+    for ( int fetchSize : fetchSizes ) {
+      final LatencyHistogram firstRows = new LatencyHistogram();
+      long rowCount = 0;
+      long backendNanos = 0;
+      long peakHeap = 0;
+      for ( int run = 0; run < runs; run++ ) {
+        final SqlExpectation.Builder builder =
+            SqlExpectation.newBuilder()
+              .query( query )
+              .rowDigest( digest )
+              .modifyStatement( settings( fetchSize, maxRows ) );
+        if ( unordered ) {
+          builder.unordered();
+        }
+        HeapUsage.resetPeak();
+        final SqlExecution execution = SqlContext.forConnection( url ).verify( builder.build() );
+        peakHeap = Math.max( peakHeap, HeapUsage.getPeak() );
+        for ( SqlTiming timing : execution.getSqlTimings() ) {
+          if ( timing.getFirstRowNanos() >= 0 ) {
+            firstRows.recordValue( timing.getFirstRowNanos() );
+          }
+          rowCount += timing.getRowCount();
+          backendNanos += timing.getBackendNanos();
+        }
+      }
+      final Step step =
+          new Step(
+            fetchSize,
+            backendNanos <= 0 ? 0 : rowCount * 1e9 / backendNanos,
+            firstRows,
+            peakHeap / ( 1024 * 1024 ) );
+      steps.add( step );
+      if ( best == null || step.rowsPerSecond > best.rowsPerSecond ) {
+        best = step;
+      }
+      LOGGER.info(
+          MessageFormat.format(
+              " fetch size {0}: {1,number,#.##} rows/s, first row {2}, peak heap {3} MB",
+              fetchSize == 0 ? "default" : fetchSize,
+              step.rowsPerSecond,
+              firstRows.summary(),
+              step.peakHeapMegabytes ) );
+
+      final String prefix = name + ".fetchSize" + fetchSize;
+      results.recordRowThroughput( prefix + ".rowsPerSecond", step.rowsPerSecond );
+      results.recordLatencies( prefix + ".firstRow", firstRows );
+      results.recordCount( prefix + ".peakHeapMB", step.peakHeapMegabytes );
+    }
+  }
+
+  /**
+   * Returns the digest of the rows of the query, run with the driver's
+   * default fetch size.
+   */
+  private String digest( String url ) throws Exception {
+    final SqlContext context = SqlContext.forConnection( url );
+    try ( Statement statement = context.connection.createStatement() ) {
+      settings( 0, maxRows ).apply( statement );
+      try ( ResultSet rs = statement.executeQuery( query ) ) {
+        return unordered ? ResultSetDigest.unorderedDigest( rs ) : ResultSetDigest.digest( rs );
+      }
+    } finally {
+      context.dispose();
+    }
+  }
+
+  private static Function<Statement, Void> settings( final int fetchSize, final int maxRows ) {
+    return new Function<Statement, Void>() {
+      @Override
+      public Void apply( Statement statement ) {
+        try {
+          if ( fetchSize > 0 ) {
+            statement.setFetchSize( fetchSize );
+          }
+          if ( maxRows > 0 ) {
+            statement.setMaxRows( maxRows );
+          }
+        } catch ( SQLException e ) {
+          throw Throwables.propagate( e );
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Prints the fetch size at which the driver fetched rows the fastest.
+   */
+  void report() {
+    if ( best == null ) {
+      return;
+    }
+    LOGGER.info(
+        MessageFormat.format(
+            " Best fetch size for {0} is {1}, at {2,number,#.##} rows/s",
+            name,
+            best.fetchSize == 0 ? "the default" : best.fetchSize,
+            best.rowsPerSecond ) );
+  }
+
+  /**
+   * Returns the fetch size at which rows were fetched the fastest, or null
+   * if no fetch size was tried.
+   */
+  Step getBest() {
+    return best;
+  }
+
+  List<Step> getSteps() {
+    return steps;
+  }
+
+  static class Step {
+    final int fetchSize;
+    final double rowsPerSecond;
+    final LatencyHistogram firstRows;
+    final long peakHeapMegabytes;
+
+    Step( int fetchSize, double rowsPerSecond, LatencyHistogram firstRows, long peakHeapMegabytes ) {
+      this.fetchSize = fetchSize;
+      this.rowsPerSecond = rowsPerSecond;
+      this.firstRows = firstRows;
+      this.peakHeapMegabytes = peakHeapMegabytes;
+    }
+  }
+
+  /**
+   * Sweeps the fetch sizes and reports the best one.
+   *
+   * @param name Prefix of the metrics recorded in the benchmark results
+   * @param query SQL query to run
+   * @param unordered Whether the query returns its rows in no particular
+   *        order
+   * @param maxRows Maximum number of rows to fetch, or 0 for all of them
+   * @param fetchSizes Fetch sizes to try. 0 leaves the driver's default.
+   * @param runs Number of runs with each fetch size
+   * @return The sweep, with its steps
+   */
+  static FetchSizeSweep runTest(
+      String name,
+      String query,
+      boolean unordered,
+      int maxRows,
+      int[] fetchSizes,
+      int runs ) throws Exception {
+    final FetchSizeSweep sweep = new FetchSizeSweep( name, query, unordered, maxRows, fetchSizes, runs );
+    sweep.run();
+    sweep.report();
+    return sweep;
+  }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Finds the JDBC fetch size at which the driver fetches the rows of a
+ * large scan the fastest, among those listed by the sql.fetch.sizes
+ * property. See {@link FetchSizeSweep}.
+ *
+ * <p>The sweep measures the driver rather than checks its compliance, and
+ * scans the fact table several times per fetch size, so it only runs when
+ * benchmark.suites is set.
+ */
+public class FetchSizeTest extends TestBase {
+  private static final int RUNS = 3;
+
+  /**
+   * Fetches the whole fact table.
+   */
+  @Test
+  public void testFullScan() throws Exception {
+    assumeBenchmarkSuites();
+    final int[] fetchSizes = fetchSizes();
+    final FetchSizeSweep sweep =
+        FetchSizeSweep.runTest(
+          "fetch.fullScan",
+          "select product_id, time_id, customer_id, promotion_id, store_id,"
+          + " store_sales, store_cost, unit_sales from sales_fact_1997",
+          true,
+          0,
+          fetchSizes,
+          RUNS );
+    assertEquals( fetchSizes.length, sweep.getSteps().size() );
+  }
+
+  /**
+   * Fetches the first rows of a sorted scan, as a client showing the first
+   * page of a report would.
+   */
+  @Test
+  public void testFirstRows() throws Exception {
+    assumeBenchmarkSuites();
+    final int[] fetchSizes = fetchSizes();
+    final FetchSizeSweep sweep =
+        FetchSizeSweep.runTest(
+          "fetch.firstRows",
+          "select product_id, time_id, customer_id, promotion_id, store_id,"
+          + " store_sales, store_cost, unit_sales from sales_fact_1997"
+          + " order by product_id, time_id, customer_id, promotion_id, store_id,"
+          + " store_sales, store_cost, unit_sales",
+          false,
+          1000,
+          fetchSizes,
+          RUNS );
+    assertEquals( fetchSizes.length, sweep.getSteps().size() );
+  }
+
+  private static int[] fetchSizes() {
+    String property = Context.testProperties.getProperty( "sql.fetch.sizes", "" );
+    if ( property.trim().isEmpty() ) {
+      property = "0,10,100,1000,10000";
+    }
+    final String[] values = property.split( "," );
+    final int[] fetchSizes = new int[values.length];
+    for ( int i = 0; i < fetchSizes.length; i++ ) {
+      fetchSizes[i] = Integer.parseInt( values[i].trim() );
+    }
+    return fetchSizes;
+  }
+}
@@ -110,6 +110,84 @@ public class FoodMartCatalogs {
       + "    <Measure name=\"Unit Sales\" column=\"unit_sales\" aggregator=\"sum\" formatString=\"Standard\"/>"
       + "  </Cube>"
       + "</Schema>";
+  public static final String STAR_WITH_STORE_AND_SNOWFLAKE_WITH_PRODUCT =
+      "<Schema name=\"FoodMart\">"
+      + "  <Cube name=\"Sales\" defaultMeasure=\"Unit Sales\">"
+      + "    <Table name=\"sales_fact_1997\"/>"
+      + "    <Dimension name=\"Store\" foreignKey=\"store_id\">"
+      + "      <Hierarchy hasAll=\"true\" primaryKey=\"store_id\">"
+      + "        <Table name=\"store\"/>"
+      + "        <Level name=\"Store Country\" column=\"store_country\" uniqueMembers=\"true\"/>"
+      + "        <Level name=\"Store State\" column=\"store_state\" uniqueMembers=\"true\"/>"
+      + "        <Level name=\"Store City\" column=\"store_city\" uniqueMembers=\"false\"/>"
+      + "        <Level name=\"Store Name\" column=\"store_name\" uniqueMembers=\"true\"/>"
+      + "      </Hierarchy>"
+      + "    </Dimension>"
+      + "    <Dimension name=\"Product\" foreignKey=\"product_id\">\n"
+      + "      <Hierarchy hasAll=\"true\" primaryKey=\"product_id\" primaryKeyTable=\"product\">\n"
+      + "        <Join leftKey=\"product_class_id\" rightKey=\"product_class_id\">\n"
+      + "          <Table name=\"product\"/>\n"
+      + "          <Table name=\"product_class\"/>\n"
+      + "        </Join>\n"
+      + "        <Level name=\"Product Family\" table=\"product_class\" column=\"product_family\"\n"
+      + "          uniqueMembers=\"true\"/>\n"
+      + "        <Level name=\"Product Department\" table=\"product_class\" column=\"product_department\"\n"
+      + "          uniqueMembers=\"false\"/>\n"
+      + "        <Level name=\"Product Category\" table=\"product_class\" column=\"product_category\"\n"
+      + "          uniqueMembers=\"false\"/>\n"
+      + "        <Level name=\"Product Subcategory\" table=\"product_class\" column=\"product_subcategory\"\n"
+      + "          uniqueMembers=\"false\"/>\n"
+      + "        <Level name=\"Brand Name\" table=\"product\" column=\"brand_name\" uniqueMembers=\"false\"/>\n"
+      + "        <Level name=\"Product Name\" table=\"product\" column=\"product_name\"\n"
+      + "          uniqueMembers=\"true\"/>\n"
+      + "      </Hierarchy>\n"
+      + "    </Dimension>"
+      + "    <Measure name=\"Unit Sales\" column=\"unit_sales\" aggregator=\"sum\" formatString=\"Standard\"/>"
+      + "<Measure name=\"Customer Count\" column=\"customer_id\" aggregator=\"distinct-count\" formatString=\"#,###\"/>"
+      + "  </Cube>"
+      + "</Schema>";
+  public static final String FLAT_WITH_CUSTOMER_STAR_WITH_STORE_AND_SNOWFLAKE_WITH_PRODUCT =
+      "<Schema name=\"FoodMart\">"
+      + "  <Cube name=\"Sales\" defaultMeasure=\"Unit Sales\">"
+      + "    <Table name=\"sales_fact_1997\"/>"
+      + "  <Dimension name=\"customer\">\n"
+      + "    <Hierarchy hasAll=\"true\" primaryKey=\"customer_id\">\n"
+      + "      <Table name=\"sales_fact_1997\"/>\n"
+      + "      <Level name=\"customer id\" type=\"Integer\" internalType=\"int\" column=\"customer_id\" uniqueMembers=\"true\"/>\n"
+      + "    </Hierarchy>\n"
+      + "  </Dimension>"
+      + "    <Dimension name=\"Store\" foreignKey=\"store_id\">"
+      + "      <Hierarchy hasAll=\"true\" primaryKey=\"store_id\">"
+      + "        <Table name=\"store\"/>"
+      + "        <Level name=\"Store Country\" column=\"store_country\" uniqueMembers=\"true\"/>"
+      + "        <Level name=\"Store State\" column=\"store_state\" uniqueMembers=\"true\"/>"
+      + "        <Level name=\"Store City\" column=\"store_city\" uniqueMembers=\"false\"/>"
+      + "        <Level name=\"Store Name\" column=\"store_name\" uniqueMembers=\"true\"/>"
+      + "      </Hierarchy>"
+      + "    </Dimension>"
+      + "    <Dimension name=\"Product\" foreignKey=\"product_id\">\n"
+      + "      <Hierarchy hasAll=\"true\" primaryKey=\"product_id\" primaryKeyTable=\"product\">\n"
+      + "        <Join leftKey=\"product_class_id\" rightKey=\"product_class_id\">\n"
+      + "          <Table name=\"product\"/>\n"
+      + "          <Table name=\"product_class\"/>\n"
+      + "        </Join>\n"
+      + "        <Level name=\"Product Family\" table=\"product_class\" column=\"product_family\"\n"
+      + "          uniqueMembers=\"true\"/>\n"
+      + "        <Level name=\"Product Department\" table=\"product_class\" column=\"product_department\"\n"
+      + "          uniqueMembers=\"false\"/>\n"
+      + "        <Level name=\"Product Category\" table=\"product_class\" column=\"product_category\"\n"
+      + "          uniqueMembers=\"false\"/>\n"
+      + "        <Level name=\"Product Subcategory\" table=\"product_class\" column=\"product_subcategory\"\n"
+      + "          uniqueMembers=\"false\"/>\n"
+      + "        <Level name=\"Brand Name\" table=\"product\" column=\"brand_name\" uniqueMembers=\"false\"/>\n"
+      + "        <Level name=\"Product Name\" table=\"product\" column=\"product_name\"\n"
+      + "          uniqueMembers=\"true\"/>\n"
+      + "      </Hierarchy>\n"
+      + "    </Dimension>"
+      + "    <Measure name=\"Unit Sales\" column=\"unit_sales\" aggregator=\"sum\" formatString=\"Standard\"/>"
+      + "<Measure name=\"Customer Count\" column=\"customer_id\" aggregator=\"distinct-count\" formatString=\"#,###\"/>"
+      + "  </Cube>"
+      + "</Schema>";
   public static final String SNOWFLAKE_WITH_PRODUCT_NO_SPACES =
       "<Schema name=\"FoodMart\">"
       + "  <Cube name=\"Sales\" defaultMeasure=\"UnitSales\">"
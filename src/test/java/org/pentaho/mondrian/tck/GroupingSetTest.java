@@ -26,7 +26,7 @@ import org.junit.Test;
 /**
  * Test "GROUPING SETS" clause. Fails at Impala as it doesn't support this syntax.
  */
-public class GroupingSetTest {
+public class GroupingSetTest extends TestBase {
 
   public static final String MDX = "with member [Gender].[agg] as ' "
       + "  Aggregate({[Gender].DefaultMember}, [Measures].[Store Cost])' "
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Measures the peak heap usage of the client while a query runs.
+ */
+class HeapUsage {
+  private HeapUsage() {
+  }
+
+  /**
+   * Collects garbage, then resets the peak usage of the heap, so that
+   * {@link #getPeak()} only accounts for what follows.
+   */
+  static void resetPeak() {
+    System.gc();
+    for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+      if ( pool.getType() == MemoryType.HEAP ) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  /**
+   * Returns the sum of the peak usages, in bytes, of the heap memory pools
+   * since {@link #resetPeak()}. Pools can peak at different times, so
+   * this is an upper bound of the peak heap usage.
+   */
+  static long getPeak() {
+    long peak = 0;
+    for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+      if ( pool.getType() == MemoryType.HEAP ) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+}
@@ -27,7 +27,7 @@ import java.sql.Types;
 
 import org.junit.Test;
 
-public class JoinTest {
+public class JoinTest extends TestBase {
 
   /**
    * This test verifies that we can join two tables through the WHERE clause.
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs MDX queries whose results have up to millions of cells, and checks
+ * them against their {@link CellSetDigest}.
+ *
+ * <p>For each query, logs and records in the benchmark results its
+ * latency, the peak heap usage while it ran and was validated, and the
+ * SQL it issued.
+ *
+ * <p>Every query of the workload must have a digest. The queries need a
+ * large heap, so the suite only runs when benchmark.suites is set.
+ */
+public class LargeResultTest extends TestBase {
+  private static final Logger LOGGER = Logger.getLogger( LargeResultTest.class );
+
+  @Test
+  public void testLargeResults() throws Exception {
+    assumeBenchmarkSuites();
+    final QueryAndResult[] queries =
+        WorkloadLoader.load(
+          Paths.get( getClass().getResource( "/workloads/large-results.workload" ).toURI() ) );
+    final boolean instrumented = Boolean.parseBoolean( Context.testProperties.getProperty( "jdbc.instrument" ) );
+    final BenchmarkResults results = BenchmarkResults.instance();
+    for ( int i = 0; i < queries.length; i++ ) {
+      final QueryAndResult query = queries[i];
+      assertNotNull( "Query #" + i + " has no expected digest.", query.digest );
+      final MondrianExpectation expectation = MondrianExpectation.newBuilder()
+          .withFreshCache()
+          .query( query.query )
+          .result( query.result )
+          .digest( query.digest )
+          .build();
+      final MondrianContext context = MondrianContext.forCatalog( query.catalog );
+
+      HeapUsage.resetPeak();
+      final MondrianExecution execution = context.verify( expectation );
+      final long peakHeapMegabytes = HeapUsage.getPeak() / ( 1024 * 1024 );
+
+      long rowsFetched = 0;
+      for ( SqlTiming timing : execution.getSqlTimings() ) {
+        rowsFetched += timing.getRowCount();
+      }
+      LOGGER.info(
+          MessageFormat.format(
+              " query #{0}: {1} cells in {2,number,#.##} ms, peak heap {3} MB, {4} SQL statements{5}",
+              i,
+              execution.getDigest().split( ":" )[0],
+              LatencyHistogram.toMillis( execution.getNanos() ),
+              peakHeapMegabytes,
+              execution.getSqlCount(),
+              instrumented ? " fetching " + rowsFetched + " rows" : "" ) );
+
+      final String prefix = "large.query" + i;
+      results.recordLatency( prefix + ".execute", execution.getNanos() );
+      results.recordCount( prefix + ".peakHeapMB", peakHeapMegabytes );
+      results.recordCount( prefix + ".sqlCount", execution.getSqlCount() );
+      if ( instrumented ) {
+        results.recordCount( prefix + ".rowsFetched", rowsFetched );
+      }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.ComparisonFailure;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class MondrianContextTest extends TestBase {
+
+  /**
+   * This test verifies that a catalog is only loaded once, and that the
+   * connection cache accounts for it.
+   */
+  @Test
+  public void testConnectionCacheStats() throws Exception {
+    final String catalog =
+        FoodMartCatalogs.FLAT_WITH_CUSTOMER.replace( "<Schema name=\"FoodMart\">", "<Schema name=\"FoodMart\"> " );
+    final CacheStats before = MondrianContext.getConnectionCacheStats();
+    final MondrianContext context = MondrianContext.forCatalog( catalog );
+    assertSame( context, MondrianContext.forCatalog( catalog ) );
+    final CacheStats stats = MondrianContext.getConnectionCacheStats().minus( before );
+    assertEquals( 1, stats.loadSuccessCount() );
+    assertEquals( 1, stats.hitCount() );
+    MondrianContext.reportConnectionCache();
+  }
+
+  /**
+   * This test verifies that a catalog is written to a file named after a
+   * hash of its content, so that it has the same path in every run.
+   */
+  @Test
+  public void testCatalogFileIsContentAddressed() throws Exception {
+    final Path catalogFile = MondrianContext.getCatalogFile( FoodMartCatalogs.FLAT_WITH_CUSTOMER );
+    assertEquals(
+        Hashing.sha256().hashString( FoodMartCatalogs.FLAT_WITH_CUSTOMER, Charsets.UTF_8 ) + ".xml",
+        catalogFile.getFileName().toString() );
+    assertEquals(
+        FoodMartCatalogs.FLAT_WITH_CUSTOMER,
+        new String( Files.readAllBytes( catalogFile ), Charsets.UTF_8 ) );
+  }
+
+  /**
+   * This test verifies that a wrong result is reported for the first line
+   * that differs.
+   */
+  @Test
+  public void testResultMismatchReportsLine() throws Exception {
+    final MondrianExpectation expectation = MondrianExpectation.newBuilder()
+        .query( AggregationTest.QUERY )
+        .result(
+          "Axis #0:\n"
+          + "{}\n"
+          + "Axis #1:\n"
+          + "{[Measures].[Unit Sales]}\n"
+          + "Row #0: 266,774\n" )
+        .build();
+    try {
+      MondrianContext.forCatalog( FoodMartCatalogs.FLAT_WITH_CUSTOMER ).verify( expectation );
+      fail( "Expected the result not to match" );
+    } catch ( ComparisonFailure e ) {
+      assertEquals( "Row #0: 266,774", e.getExpected() );
+      assertEquals( "Row #0: 266,773", e.getActual() );
+    }
+  }
+
+  /**
+   * This test verifies that, with jdbc.instrument, a catalog can be opened
+   * before anything else loaded the instrumenting driver. It runs in a JVM
+   * of its own, since the driver stays registered once loaded.
+   */
+  @Test
+  public void testInstrumentedConnectionInFreshJvm() throws Exception {
+    Assume.assumeTrue( Boolean.parseBoolean( Context.testProperties.getProperty( "jdbc.instrument" ) ) );
+    final Process process =
+        new ProcessBuilder(
+          Paths.get( System.getProperty( "java.home" ), "bin", "java" ).toString(),
+          "-cp",
+          System.getProperty( "java.class.path" ),
+          FreshJvmConnection.class.getName() )
+          .inheritIO()
+          .start();
+    if ( !process.waitFor( 5, TimeUnit.MINUTES ) ) {
+      process.destroy();
+      fail( "Query did not complete in time" );
+    }
+    assertEquals( 0, process.exitValue() );
+  }
+
+  /**
+   * Opens a catalog and runs a query, as the first thing its JVM does.
+   */
+  public static class FreshJvmConnection {
+    public static void main( String[] args ) {
+      try {
+        MondrianContext.forCatalog( FoodMartCatalogs.FLAT_WITH_CUSTOMER ).verify(
+            MondrianExpectation.newBuilder()
+              .query( AggregationTest.QUERY )
+              .result(
+                "Axis #0:\n"
+                + "{}\n"
+                + "Axis #1:\n"
+                + "{[Measures].[Unit Sales]}\n"
+                + "Row #0: 266,773\n" )
+              .build() );
+      } catch ( Throwable t ) {
+        t.printStackTrace();
+        System.exit( 1 );
+      }
+      System.exit( 0 );
+    }
+  }
+}
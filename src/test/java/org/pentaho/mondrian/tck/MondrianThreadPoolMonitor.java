@@ -0,0 +1,189 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mondrian.olap.MondrianProperties;
+import mondrian.olap.Util;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Periodically samples the threads of Mondrian's own executors to tell
+ * how busy they are while a load test runs.
+ *
+ * <p>Mondrian runs each MDX statement on the query executor of
+ * RolapResultShepherd, and loads segments on the SQL executor of
+ * SegmentCacheManager. Both are fixed size pools. When all the threads of
+ * a pool are busy, additional work waits in its queue, whatever the
+ * number of users driving the server. A thread is considered idle when it
+ * is waiting for a task in ThreadPoolExecutor.getTask.
+ */
+class MondrianThreadPoolMonitor {
+  private static final Logger LOGGER = Logger.getLogger( MondrianThreadPoolMonitor.class );
+  private static final String QUERY_POOL_PREFIX = "mondrian.rolap.RolapResultShepherd$executor";
+  private static final String SQL_POOL_PREFIX = "mondrian.rolap.agg.SegmentCacheManager$sqlExecutor";
+  private static final ScheduledExecutorService sampler =
+      Util.getScheduledExecutorService( 1, "MondrianThreadPoolMonitor.sampler" );
+
+  private final AtomicInteger inFlight;
+  private final Pool queryPool =
+      new Pool( "query", QUERY_POOL_PREFIX, MondrianProperties.instance().RolapConnectionShepherdNbThreads.get() );
+  private final Pool sqlPool =
+      new Pool( "SQL", SQL_POOL_PREFIX, MondrianProperties.instance().SegmentCacheManagerNumberSqlThreads.get() );
+  private ScheduledFuture<?> future;
+  private int samples;
+  private int maxInFlight;
+
+  /**
+   * @param inFlight Number of MDX queries currently submitted by the
+   *        load generator.
+   */
+  MondrianThreadPoolMonitor( AtomicInteger inFlight ) {
+    this.inFlight = inFlight;
+  }
+
+  void start( long periodMillis ) {
+    future = sampler.scheduleAtFixedRate(
+        new Runnable() {
+          public void run() {
+            sample();
+          }
+        },
+        0,
+        periodMillis,
+        TimeUnit.MILLISECONDS );
+  }
+
+  void stop() {
+    if ( future != null ) {
+      future.cancel( false );
+    }
+  }
+
+  private synchronized void sample() {
+    final int users = inFlight.get();
+    int queryBusy = 0;
+    int sqlBusy = 0;
+    for ( Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet() ) {
+      final String name = entry.getKey().getName();
+      if ( name.startsWith( QUERY_POOL_PREFIX ) && !isIdle( entry.getValue() ) ) {
+        queryBusy++;
+      } else if ( name.startsWith( SQL_POOL_PREFIX ) && !isIdle( entry.getValue() ) ) {
+        sqlBusy++;
+      }
+    }
+    samples++;
+    maxInFlight = Math.max( maxInFlight, users );
+    queryPool.sample( queryBusy, users );
+    sqlPool.sample( sqlBusy, users );
+  }
+
+  private static boolean isIdle( StackTraceElement[] stack ) {
+    for ( StackTraceElement element : stack ) {
+      if ( element.getClassName().equals( "java.util.concurrent.ThreadPoolExecutor" )
+          && element.getMethodName().equals( "getTask" ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Prints the utilization of the query and SQL pools, and the number of
+   * queries in flight when each of them first ran out of threads.
+   */
+  synchronized void report() {
+    LOGGER.info(
+        MessageFormat.format(
+            " Sampled Mondrian thread pools {0} times, up to {1} queries in flight",
+            samples,
+            maxInFlight ) );
+    queryPool.report( samples );
+    sqlPool.report( samples );
+  }
+
+  /**
+   * Returns the number of queries in flight when the query pool first
+   * ran out of threads, or -1 if it never did.
+   */
+  synchronized int getQueryPoolSaturationPoint() {
+    return queryPool.firstSaturatedAt;
+  }
+
+  /**
+   * Returns the number of queries in flight when the SQL pool first ran
+   * out of threads, or -1 if it never did.
+   */
+  synchronized int getSqlPoolSaturationPoint() {
+    return sqlPool.firstSaturatedAt;
+  }
+
+  private static class Pool {
+    final String name;
+    final String prefix;
+    final int size;
+    long busyTotal;
+    int maxBusy;
+    int saturatedSamples;
+    int firstSaturatedAt = -1;
+
+    Pool( String name, String prefix, int size ) {
+      this.name = name;
+      this.prefix = prefix;
+      this.size = size;
+    }
+
+    void sample( int busy, int users ) {
+      busyTotal += busy;
+      maxBusy = Math.max( maxBusy, busy );
+      if ( busy >= size ) {
+        saturatedSamples++;
+        if ( firstSaturatedAt < 0 ) {
+          firstSaturatedAt = users;
+        }
+      }
+    }
+
+    void report( int samples ) {
+      LOGGER.info(
+          MessageFormat.format(
+              " Mondrian {0} pool ({1}, {2} threads): {3,number,#.#} busy on average, {4} at most,"
+              + " saturated in {5,number,#.#%} of samples{6}",
+              name,
+              prefix,
+              size,
+              samples == 0 ? 0d : (double) busyTotal / samples,
+              maxBusy,
+              samples == 0 ? 0d : (double) saturatedSamples / samples,
+              firstSaturatedAt < 0
+                ? ""
+                : ", first at " + firstSaturatedAt + " queries in flight" ) );
+    }
+  }
+}
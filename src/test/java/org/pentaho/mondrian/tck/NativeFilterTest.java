@@ -21,6 +21,7 @@
  ******************************************************************************/
 package org.pentaho.mondrian.tck;
 
+import org.junit.Assume;
 import org.junit.Test;
 
 import static org.pentaho.mondrian.tck.FoodMartCatalogs.*;
@@ -63,6 +64,30 @@ public class NativeFilterTest extends TestBase {
     MondrianContext.forCatalog( FLAT_WITH_CUSTOMER ).verify( expectation );
   }
 
+  /**
+   * Evaluated natively, the filter only fetches the matching customer.
+   * Falling back to non-native evaluation would read all the customers,
+   * and blow the budget.
+   */
+  @Test
+  public void testFilterFunctionSingleFactSqlBudget() throws Exception {
+    Assume.assumeTrue( Boolean.parseBoolean( Context.testProperties.getProperty( "jdbc.instrument" ) ) );
+    MondrianExpectation expectation = MondrianExpectation.newBuilder()
+        .withFreshCache()
+        .query(
+          "select Filter([customer].[customer].[customer id].members, [Measures].[Unit Sales] > 500) on 0 from sales" )
+        .result(
+          "Axis #0:\n"
+            + "{}\n"
+            + "Axis #1:\n"
+            + "{[customer].[4021]}\n"
+            + "Row #0: 518\n" )
+        .maxSqlStatements( 5 )
+        .maxRowsFetched( 100 )
+        .build();
+    MondrianContext.forCatalog( FLAT_WITH_CUSTOMER ).verify( expectation );
+  }
+
   @Test
   public void testFilterFunctionStar() throws Exception {
     MondrianExpectation expectation = MondrianExpectation.newBuilder()
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.pentaho.mondrian.tck.QueryStatistics.Outcome;
+import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
+
+/**
+ * Issues MDX queries at a constant arrival rate, regardless of how fast
+ * Mondrian answers them.
+ *
+ * <p>Unlike {@link ConcurrentValidatingMdxQueryRunner}, where each thread
+ * waits for its query to finish before sending the next one, the offered
+ * load does not drop when the server slows down. Queries that cannot be
+ * started on time wait in a queue, and their latency is measured from the
+ * time they were meant to be sent. This avoids coordinated omission: a
+ * stalled server shows up in the tail percentiles instead of hiding the
+ * requests that would have been issued while it stalled.
+ *
+ * <p>The think time of the queries is ignored, since the arrival rate
+ * alone decides when queries are sent.
+ */
+class OpenLoopMdxQueryRunner {
+  private static final Logger LOGGER = Logger.getLogger( OpenLoopMdxQueryRunner.class );
+
+  private final int targetQps;
+  private final long runTimeNanos;
+  private final boolean randomQueries;
+  private final boolean usePooling;
+  private final QueryAndResult[] mdxQueries;
+  private final WorkloadMix mix;
+  private final QueryStatistics statistics;
+  private final LatencyHistogram serviceTimes = new LatencyHistogram();
+  private final LatencyHistogram startDelays = new LatencyHistogram();
+  private final List<Throwable> exceptions = new CopyOnWriteArrayList<>();
+  private final AtomicLong started = new AtomicLong();
+  private long issued;
+  private long backlog;
+  private long elapsedMillis;
+
+  /**
+   * @param targetQps Number of queries to issue per second
+   * @param runTimeInSeconds How long to issue queries for
+   * @param randomQueries Whether to pick queries in random or in sequence
+   * @param queriesAndResults Array of pairs of query and expected result
+   */
+  OpenLoopMdxQueryRunner(
+      int targetQps,
+      int runTimeInSeconds,
+      boolean randomQueries,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults ) {
+    if ( targetQps <= 0 ) {
+      throw new IllegalArgumentException( "Target rate must be positive: " + targetQps );
+    }
+    this.targetQps = targetQps;
+    this.runTimeNanos = TimeUnit.SECONDS.toNanos( runTimeInSeconds );
+    this.randomQueries = randomQueries;
+    this.usePooling = usePooling;
+    this.mdxQueries = queriesAndResults;
+    this.mix = new WorkloadMix( queriesAndResults );
+    this.statistics = new QueryStatistics( queriesAndResults );
+  }
+
+  /**
+   * Issues queries on schedule until the run time expires, then waits as
+   * long again for the queued queries to complete.
+   *
+   * @param maxConcurrency Number of threads executing queries. Queries
+   *        issued while they are all busy wait for one to be free.
+   */
+  void run( int maxConcurrency ) throws InterruptedException {
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        maxConcurrency,
+        new ThreadFactory() {
+          public Thread newThread( Runnable r ) {
+            final Thread t = Executors.defaultThreadFactory().newThread( r );
+            t.setDaemon( true );
+            return t;
+          }
+        } );
+
+    final long interval = TimeUnit.SECONDS.toNanos( 1 ) / targetQps;
+    final long startTime = System.nanoTime();
+    try {
+      for ( long i = 0;; i++ ) {
+        final long intendedStart = startTime + i * interval;
+        if ( intendedStart - startTime >= runTimeNanos ) {
+          break;
+        }
+        long wait;
+        while ( ( wait = intendedStart - System.nanoTime() ) > 0 ) {
+          LockSupport.parkNanos( wait );
+        }
+        final int queryIndex =
+            randomQueries
+              ? mix.pick( Math.random() )
+              : (int) ( i % mdxQueries.length );
+        executor.execute( newQuery( queryIndex, intendedStart ) );
+        issued++;
+      }
+      backlog = issued - started.get();
+    } finally {
+      executor.shutdown();
+      if ( !executor.awaitTermination( runTimeNanos, TimeUnit.NANOSECONDS ) ) {
+        executor.shutdownNow();
+        exceptions.add(
+            new Exception(
+              ( issued - started.get() ) + " queries were never started." ) );
+      }
+      elapsedMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startTime );
+    }
+    statistics.publish( "openloop", elapsedMillis );
+    BenchmarkResults.instance().recordLatencies( "openloop.startDelay", startDelays );
+    BenchmarkResults.instance().recordLatencies( "openloop.serviceTime", serviceTimes );
+  }
+
+  private Runnable newQuery( final int queryIndex, final long intendedStart ) {
+    return new Runnable() {
+      public void run() {
+        final long actualStart = System.nanoTime();
+        started.incrementAndGet();
+        startDelays.recordValue( actualStart - intendedStart );
+        try {
+          final Outcome outcome =
+              ConcurrentValidatingMdxQueryRunner.runQuery( mdxQueries[queryIndex], usePooling );
+          final long end = System.nanoTime();
+          statistics.record( queryIndex, outcome, end - intendedStart );
+          serviceTimes.recordValue( end - actualStart );
+        } catch ( Throwable e ) {
+          final long end = System.nanoTime();
+          statistics.record( queryIndex, Outcome.FAILURE, end - intendedStart );
+          serviceTimes.recordValue( end - actualStart );
+          exceptions.add(
+              new Exception(
+                "Exception occurred in query #" + queryIndex
+                + " of thread " + Thread.currentThread().getName(),
+                e ) );
+        }
+      }
+    };
+  }
+
+  /**
+   * Prints result of this test run. Latencies of the queries are measured
+   * from their intended start time; service times from their actual start.
+   */
+  void report() {
+    LOGGER.info(
+        MessageFormat.format(
+            " Open loop at {0} qps: issued {1} queries, {2} still queued at end of schedule,"
+            + " completed {3,number,#.##} qps",
+            targetQps,
+            issued,
+            backlog,
+            QueryStatistics.throughput( serviceTimes.getTotalCount(), elapsedMillis ) ) );
+    LOGGER.info( " Start delay behind schedule: " + startDelays.summary() );
+    LOGGER.info( " Service time: " + serviceTimes.summary() );
+    statistics.report( LOGGER, elapsedMillis );
+    for ( Throwable throwable : exceptions ) {
+      LOGGER.error( throwable );
+    }
+  }
+
+  QueryStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Returns how late the queries were started compared to the schedule.
+   */
+  LatencyHistogram getStartDelays() {
+    return startDelays;
+  }
+
+  List<Throwable> getExceptions() {
+    return exceptions;
+  }
+
+  /**
+   * Creates and runs an open loop test.
+   *
+   * @param targetQps Number of queries to issue per second
+   * @param maxConcurrency Number of threads executing queries
+   * @param runTimeInSeconds Running Time
+   * @param randomQueries Whether to pick queries in random or in sequence
+   * @param printReport Whether to print report
+   * @param queriesAndResults Array of pairs of query and expected result
+   * @return The list of failures
+   */
+  static List<Throwable> runTest(
+      int targetQps,
+      int maxConcurrency,
+      int runTimeInSeconds,
+      boolean randomQueries,
+      boolean printReport,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults ) throws Exception {
+
+    ConcurrentValidatingMdxQueryRunner.flushSchemaCaches( queriesAndResults, usePooling );
+
+    OpenLoopMdxQueryRunner runner =
+        new OpenLoopMdxQueryRunner(
+          targetQps, runTimeInSeconds, randomQueries, usePooling, queriesAndResults );
+    runner.run( maxConcurrency );
+    if ( printReport ) {
+      runner.report();
+    }
+    return runner.getExceptions();
+  }
+}
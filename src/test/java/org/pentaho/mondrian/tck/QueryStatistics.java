@@ -0,0 +1,166 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.text.MessageFormat;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
+
+/**
+ * Latency histograms of a concurrent run, kept for each query of the
+ * workload and each {@link Outcome}. Shared by all the runners of a test.
+ */
+class QueryStatistics {
+
+  enum Outcome {
+    SUCCESS, FAILURE, CANCEL
+  }
+
+  private final QueryAndResult[] queries;
+  private final LatencyHistogram[][] histograms;
+  private final AtomicLongArray slaBreaches;
+
+  QueryStatistics( QueryAndResult[] queries ) {
+    this.queries = queries;
+    this.histograms = new LatencyHistogram[queries.length][Outcome.values().length];
+    this.slaBreaches = new AtomicLongArray( queries.length );
+    for ( int i = 0; i < queries.length; i++ ) {
+      for ( Outcome outcome : Outcome.values() ) {
+        histograms[i][outcome.ordinal()] = new LatencyHistogram();
+      }
+    }
+  }
+
+  void record( int queryIndex, Outcome outcome, long nanos ) {
+    histograms[queryIndex][outcome.ordinal()].recordValue( nanos );
+    final int slaMillis = queries[queryIndex].slaMillis;
+    if ( outcome != Outcome.CANCEL
+        && slaMillis >= 0
+        && nanos > TimeUnit.MILLISECONDS.toNanos( slaMillis ) ) {
+      slaBreaches.incrementAndGet( queryIndex );
+    }
+  }
+
+  /**
+   * Returns how many runs of the given query, canceled ones excepted,
+   * took longer than its SLA.
+   */
+  long getSlaBreaches( int queryIndex ) {
+    return slaBreaches.get( queryIndex );
+  }
+
+  LatencyHistogram get( int queryIndex, Outcome outcome ) {
+    return histograms[queryIndex][outcome.ordinal()];
+  }
+
+  /**
+   * Returns the latencies of all the queries for the given outcome.
+   */
+  LatencyHistogram total( Outcome outcome ) {
+    final LatencyHistogram total = new LatencyHistogram();
+    for ( LatencyHistogram[] histogram : histograms ) {
+      total.add( histogram[outcome.ordinal()] );
+    }
+    return total;
+  }
+
+  int size() {
+    return queries.length;
+  }
+
+  /**
+   * Logs the latency percentiles and throughput of each query and outcome.
+   * @param elapsedMillis Wall clock duration of the run, used to compute
+   * the throughput.
+   */
+  void report( Logger logger, long elapsedMillis ) {
+    for ( Outcome outcome : Outcome.values() ) {
+      report( logger, "all queries", total( outcome ), outcome, elapsedMillis );
+    }
+    for ( int i = 0; i < queries.length; i++ ) {
+      for ( Outcome outcome : Outcome.values() ) {
+        report( logger, "query #" + i + " " + abbreviate( queries[i].query ), get( i, outcome ), outcome, elapsedMillis );
+      }
+      if ( queries[i].slaMillis >= 0 ) {
+        logger.info(
+            MessageFormat.format(
+                " query #{0}: {1} queries over the SLA of {2} ms",
+                i,
+                getSlaBreaches( i ),
+                queries[i].slaMillis ) );
+      }
+    }
+  }
+
+  private void report( Logger logger, String name, LatencyHistogram histogram, Outcome outcome, long elapsedMillis ) {
+    if ( histogram.getTotalCount() == 0 ) {
+      return;
+    }
+    logger.info(
+        MessageFormat.format(
+            " {0} {1}: {2} queries, {3,number,#.##} qps, {4}",
+            name,
+            outcome,
+            histogram.getTotalCount(),
+            throughput( histogram.getTotalCount(), elapsedMillis ),
+            histogram.summary() ) );
+  }
+
+  /**
+   * Adds the latencies and throughput of each query and outcome to the
+   * benchmark results of the current test, under the given prefix.
+   */
+  void publish( String prefix, long elapsedMillis ) {
+    final BenchmarkResults results = BenchmarkResults.instance();
+    for ( Outcome outcome : Outcome.values() ) {
+      publish( results, prefix + "." + outcome.name().toLowerCase(), total( outcome ), elapsedMillis );
+      for ( int i = 0; i < queries.length; i++ ) {
+        publish(
+            results,
+            prefix + ".query" + i + "." + outcome.name().toLowerCase(),
+            get( i, outcome ),
+            elapsedMillis );
+      }
+    }
+  }
+
+  private static void publish(
+      BenchmarkResults results, String metric, LatencyHistogram histogram, long elapsedMillis ) {
+    if ( histogram.getTotalCount() == 0 ) {
+      return;
+    }
+    results.recordLatencies( metric, histogram );
+    results.recordThroughput( metric + ".throughput", throughput( histogram.getTotalCount(), elapsedMillis ) );
+  }
+
+  static double throughput( long count, long elapsedMillis ) {
+    return elapsedMillis <= 0 ? 0 : count * 1000d / elapsedMillis;
+  }
+
+  private static String abbreviate( String query ) {
+    final String oneLine = query.replaceAll( "\\s+", " " ).trim();
+    return oneLine.length() <= 60 ? oneLine : oneLine.substring( 0, 57 ) + "...";
+  }
+}
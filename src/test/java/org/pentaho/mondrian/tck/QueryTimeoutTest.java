@@ -0,0 +1,201 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.text.MessageFormat;
+import java.util.concurrent.TimeUnit;
+
+import mondrian.olap.MondrianProperties;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how well Mondrian enforces its query timeout, on queries heavy
+ * enough to run past it.
+ *
+ * <p>For each query, records how long after the timeout the query actually
+ * failed, and, when jdbc.instrument is set, how long after that the SQL
+ * statements it issued were released by the database. A statement that
+ * keeps running after its query timed out keeps loading the backend for
+ * nothing.
+ *
+ * <p>The suite runs heavy queries with a fresh cache, several times each,
+ * and measures the backend rather than checks compliance, so it only runs
+ * when benchmark.suites is set.
+ */
+public class QueryTimeoutTest extends TestBase {
+  private static final Logger LOGGER = Logger.getLogger( QueryTimeoutTest.class );
+
+  static final int TIMEOUT_SECONDS = 1;
+
+  static final int RUNS = 5;
+
+  /**
+   * How long to wait, once a query timed out, for its SQL statements to be
+   * released.
+   */
+  static final int RELEASE_TIMEOUT_SECONDS = 60;
+
+  /**
+   * Large native crossjoin. Most of the time goes to the SQL statement
+   * joining the fact table to both dimensions.
+   */
+  @Test
+  public void testCrossjoinTimeout() throws Exception {
+    assumeBenchmarkSuites();
+    verifyTimeout(
+        "crossjoin",
+        "select "
+          + "  non empty Crossjoin([Store].[Store Name].Members, [Product].[Product Name].Members) on 0,"
+          + "  {[Measures].[Unit Sales], [Measures].[Customer Count]} on 1 "
+          + "  from Sales" );
+  }
+
+  /**
+   * Crossjoin filtered by a calculated measure. Most of the time goes to
+   * evaluating cells in Mondrian.
+   */
+  @Test
+  public void testFilteredCrossjoinTimeout() throws Exception {
+    assumeBenchmarkSuites();
+    verifyTimeout(
+        "filteredCrossjoin",
+        "with member [Measures].[Heavy] as "
+          + "  'Count(Filter(Crossjoin([Store].[Store Name].Members, [Product].[Product Name].Members),"
+          + "    [Measures].[Unit Sales] > 10))' "
+          + "select "
+          + "  [Measures].[Heavy] on 0,"
+          + "  [Product].[Product Name].Members on 1 "
+          + "  from Sales" );
+  }
+
+  private void verifyTimeout( final String name, final String query ) {
+    new PropertyContext()
+        .withProperty( MondrianProperties.instance().QueryTimeout, String.valueOf( TIMEOUT_SECONDS ) )
+        .execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                runQueries( name, query );
+              } catch ( Exception e ) {
+                throw new RuntimeException( e );
+              }
+            }
+          } );
+  }
+
+  private void runQueries( String name, String query ) throws Exception {
+    final boolean instrumented = Boolean.parseBoolean( Context.testProperties.getProperty( "jdbc.instrument" ) );
+    final MondrianContext context =
+        MondrianContext.forCatalog( FoodMartCatalogs.STAR_WITH_STORE_AND_SNOWFLAKE_WITH_PRODUCT );
+    final long timeoutNanos = TimeUnit.SECONDS.toNanos( TIMEOUT_SECONDS );
+    final LatencyHistogram overruns = new LatencyHistogram();
+    final LatencyHistogram releases = new LatencyHistogram();
+    int completed = 0;
+    int leftRunning = 0;
+    for ( int run = 0; run < RUNS; run++ ) {
+      final int activeBefore = InstrumentingDriver.getActiveStatementCount();
+      final long start = System.nanoTime();
+      Exception failure = null;
+      try {
+        context.verify(
+            MondrianExpectation.newBuilder()
+              .withFreshCache()
+              .query( query )
+              .build() );
+      } catch ( Exception e ) {
+        failure = e;
+      }
+      final long failedAt = System.nanoTime();
+      if ( failure == null ) {
+        completed++;
+        continue;
+      }
+      assertTrue( "Query failed for another reason than its timeout: " + failure, isTimeout( failure ) );
+      overruns.recordValue( Math.max( 0, failedAt - start - timeoutNanos ) );
+      if ( instrumented ) {
+        final long releasedAt = awaitRelease( activeBefore, failedAt );
+        if ( releasedAt < 0 ) {
+          leftRunning++;
+        } else {
+          releases.recordValue( releasedAt - failedAt );
+        }
+      }
+    }
+
+    LOGGER.info(
+        MessageFormat.format(
+            " {0} with a timeout of {1} s: {2} timed out {3} late, {4} completed in time",
+            name,
+            TIMEOUT_SECONDS,
+            overruns.getTotalCount(),
+            overruns.summary(),
+            completed ) );
+    final BenchmarkResults results = BenchmarkResults.instance();
+    results.recordLatencies( "mdx.timeout." + name + ".overrun", overruns );
+    results.recordCount( "mdx.timeout." + name + ".completed", completed );
+    if ( instrumented ) {
+      LOGGER.info(
+          MessageFormat.format(
+              " {0}: SQL statements released {1} after the timeout, {2} still running after {3} s",
+              name,
+              releases.summary(),
+              leftRunning,
+              RELEASE_TIMEOUT_SECONDS ) );
+      results.recordLatencies( "mdx.timeout." + name + ".release", releases );
+      results.recordCount( "mdx.timeout." + name + ".leftRunning", leftRunning );
+      assertEquals( "Queries whose SQL statements outlived their timeout", 0, leftRunning );
+    }
+  }
+
+  /**
+   * Waits until the SQL statements active through the instrumenting
+   * driver are no more than before the query.
+   *
+   * @return The time they were released, or -1 if some are still active
+   */
+  private static long awaitRelease( int activeBefore, long failedAt ) throws InterruptedException {
+    final long deadline = failedAt + TimeUnit.SECONDS.toNanos( RELEASE_TIMEOUT_SECONDS );
+    while ( InstrumentingDriver.getActiveStatementCount() > activeBefore ) {
+      if ( System.nanoTime() - deadline > 0 ) {
+        return -1;
+      }
+      Thread.sleep( 1 );
+    }
+    return System.nanoTime();
+  }
+
+  private static boolean isTimeout( Throwable failure ) {
+    for ( Throwable t = failure; t != null; t = t.getCause() ) {
+      if ( t.getClass().getSimpleName().equals( "QueryTimeoutException" )
+          || ( t.getMessage() != null && t.getMessage().contains( "Query timeout" ) ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
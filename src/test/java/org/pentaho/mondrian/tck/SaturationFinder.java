@@ -0,0 +1,234 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.pentaho.mondrian.tck.QueryStatistics.Outcome;
+import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
+
+/**
+ * Finds the concurrency at which Mondrian saturates, by running the
+ * workload with 1, 2, 4, 8... concurrent threads.
+ *
+ * <p>Each step first runs a warm-up window, whose results are discarded,
+ * then a measurement window. The ramp stops as soon as the 99th percentile
+ * of successful queries exceeds the SLA, or the throughput rises by less
+ * than the given ratio from one step to the next. The knee is the last
+ * step that met the SLA and still increased the throughput.
+ *
+ * <p>Queries are never canceled, so that the throughput only counts
+ * queries that ran to completion.
+ */
+class SaturationFinder {
+  private static final Logger LOGGER = Logger.getLogger( SaturationFinder.class );
+
+  private final QueryAndResult[] mdxQueries;
+  private final boolean usePooling;
+  private final int warmUpSeconds;
+  private final int measureSeconds;
+  private final long p99SlaNanos;
+  private final double minThroughputGain;
+  private final int maxConcurrency;
+  private final long seed;
+  private final List<Step> steps = new ArrayList<>();
+  private final List<Throwable> exceptions = new ArrayList<>();
+  private Step knee;
+
+  /**
+   * @param warmUpSeconds Duration of the warm-up window of each step
+   * @param measureSeconds Duration of the measurement window of each step
+   * @param p99SlaMillis Highest acceptable 99th percentile latency
+   * @param minThroughputGain Lowest relative increase of throughput, for
+   *        example 0.05 for 5%, for a step to count as rising
+   * @param maxConcurrency Concurrency at which to stop ramping anyway
+   * @param seed Seed of the workload, to replay the same schedule
+   * @param queriesAndResults Array of pairs of query and expected result
+   */
+  SaturationFinder(
+      int warmUpSeconds,
+      int measureSeconds,
+      int p99SlaMillis,
+      double minThroughputGain,
+      int maxConcurrency,
+      long seed,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults ) {
+    this.warmUpSeconds = warmUpSeconds;
+    this.measureSeconds = measureSeconds;
+    this.p99SlaNanos = TimeUnit.MILLISECONDS.toNanos( p99SlaMillis );
+    this.minThroughputGain = minThroughputGain;
+    this.maxConcurrency = maxConcurrency;
+    this.seed = seed;
+    this.usePooling = usePooling;
+    this.mdxQueries = queriesAndResults;
+  }
+
+  void run() throws Exception {
+    ConcurrentValidatingMdxQueryRunner.flushSchemaCaches( mdxQueries, usePooling );
+    LOGGER.info( " Seed: " + seed );
+    final SeededWorkload workload = new SeededWorkload( seed, mdxQueries, 0, -1 );
+    Step previous = null;
+    for ( int concurrency = 1; concurrency <= maxConcurrency; concurrency *= 2 ) {
+      if ( warmUpSeconds > 0 ) {
+        runStep( workload, concurrency, warmUpSeconds );
+      }
+      final Step step = runStep( workload, concurrency, measureSeconds );
+      steps.add( step );
+      LOGGER.info(
+          MessageFormat.format(
+              " {0} threads: {1,number,#.##} qps, p99={2,number,#.##}ms, {3} failures",
+              step.concurrency,
+              step.throughput,
+              LatencyHistogram.toMillis( step.p99Nanos ),
+              step.failures ) );
+      if ( step.p99Nanos > p99SlaNanos ) {
+        LOGGER.info( " p99 exceeds the SLA at " + concurrency + " threads" );
+        break;
+      }
+      if ( previous != null && step.throughput < previous.throughput * ( 1 + minThroughputGain ) ) {
+        LOGGER.info( " Throughput stopped rising at " + concurrency + " threads" );
+        break;
+      }
+      knee = step;
+      previous = step;
+    }
+    if ( knee != null ) {
+      BenchmarkResults.instance().recordThroughput( "saturation.knee.throughput", knee.throughput );
+    }
+  }
+
+  private Step runStep( SeededWorkload workload, int concurrency, int seconds ) {
+    final QueryStatistics statistics = new QueryStatistics( mdxQueries );
+    final ConcurrentValidatingMdxQueryRunner[] runners =
+        new ConcurrentValidatingMdxQueryRunner[concurrency];
+    for ( int idx = 0; idx < concurrency; idx++ ) {
+      runners[idx] = new ConcurrentValidatingMdxQueryRunner(
+          seconds, 0, workload.forThread( idx ), usePooling, mdxQueries, statistics );
+    }
+    final long elapsedMillis = ConcurrentValidatingMdxQueryRunner.startAndJoin( runners, exceptions );
+    final LatencyHistogram successes = statistics.total( Outcome.SUCCESS );
+    return new Step(
+        concurrency,
+        QueryStatistics.throughput( successes.getTotalCount(), elapsedMillis ),
+        successes.getValueAtPercentile( 99 ),
+        statistics.total( Outcome.FAILURE ).getTotalCount() );
+  }
+
+  /**
+   * Prints the steps of the ramp and the knee.
+   */
+  void report() {
+    if ( knee == null ) {
+      LOGGER.info( " No concurrency level met the SLA." );
+    } else {
+      LOGGER.info(
+          MessageFormat.format(
+              " Maximum sustainable concurrency is {0} threads, at {1,number,#.##} qps",
+              knee.concurrency,
+              knee.throughput ) );
+    }
+    for ( Throwable throwable : exceptions ) {
+      LOGGER.error( throwable );
+    }
+  }
+
+  /**
+   * Returns the highest step that met the SLA and increased the
+   * throughput, or null if even a single thread breached the SLA.
+   */
+  Step getKnee() {
+    return knee;
+  }
+
+  List<Step> getSteps() {
+    return steps;
+  }
+
+  List<Throwable> getExceptions() {
+    return exceptions;
+  }
+
+  static class Step {
+    final int concurrency;
+    final double throughput;
+    final long p99Nanos;
+    final long failures;
+
+    Step( int concurrency, double throughput, long p99Nanos, long failures ) {
+      this.concurrency = concurrency;
+      this.throughput = throughput;
+      this.p99Nanos = p99Nanos;
+      this.failures = failures;
+    }
+  }
+
+  /**
+   * Ramps the concurrency until saturation and reports the knee, replaying
+   * the workload of {@link ConcurrentMdxTest#WORKLOAD_SEED}.
+   *
+   * @see #runTest(int, int, int, int, long, boolean, QueryAndResult[])
+   */
+  static List<Throwable> runTest(
+      int warmUpSeconds,
+      int measureSeconds,
+      int p99SlaMillis,
+      int maxConcurrency,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults ) throws Exception {
+    return runTest(
+        warmUpSeconds, measureSeconds, p99SlaMillis, maxConcurrency,
+        ConcurrentMdxTest.WORKLOAD_SEED, usePooling, queriesAndResults );
+  }
+
+  /**
+   * Ramps the concurrency until saturation and reports the knee.
+   *
+   * @param warmUpSeconds Duration of the warm-up window of each step
+   * @param measureSeconds Duration of the measurement window of each step
+   * @param p99SlaMillis Highest acceptable 99th percentile latency
+   * @param maxConcurrency Concurrency at which to stop ramping anyway
+   * @param seed Seed of the workload, to replay the same schedule
+   * @param queriesAndResults Array of pairs of query and expected result
+   * @return The list of failures
+   */
+  static List<Throwable> runTest(
+      int warmUpSeconds,
+      int measureSeconds,
+      int p99SlaMillis,
+      int maxConcurrency,
+      long seed,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults ) throws Exception {
+    SaturationFinder finder =
+        new SaturationFinder(
+          warmUpSeconds, measureSeconds, p99SlaMillis, 0.05, maxConcurrency,
+          seed, usePooling, queriesAndResults );
+    finder.run();
+    finder.report();
+    return finder.getExceptions();
+  }
+}
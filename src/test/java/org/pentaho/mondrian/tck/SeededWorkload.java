@@ -0,0 +1,105 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.util.Random;
+
+import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
+
+/**
+ * Generates the sequence of queries and cancels of each thread of a
+ * concurrent test from a seed, so that a run can be replayed exactly.
+ *
+ * <p>Each thread draws from its own generator, derived from the seed and
+ * the thread index. The schedule of a thread therefore does not depend on
+ * how the threads interleave, nor on how many iterations the other
+ * threads manage to run.
+ */
+class SeededWorkload {
+  private final long seed;
+  private final WorkloadMix mix;
+  private final double cancelRatio;
+  private final int cancelAfterMillis;
+
+  /**
+   * @param seed Seed of the workload. Same seeds give the same schedules.
+   * @param queriesAndResults The queries to choose from, according to
+   *        their weights
+   * @param cancelRatio Ratio of the queries to cancel, between 0 and 1
+   * @param cancelAfterMillis How long after they start canceled queries
+   *        are canceled
+   */
+  SeededWorkload(
+      long seed,
+      QueryAndResult[] queriesAndResults,
+      double cancelRatio,
+      int cancelAfterMillis ) {
+    this.seed = seed;
+    this.mix = new WorkloadMix( queriesAndResults );
+    this.cancelRatio = cancelRatio;
+    this.cancelAfterMillis = cancelAfterMillis;
+  }
+
+  long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Returns the schedule of the thread with the given index.
+   */
+  Schedule forThread( int threadIndex ) {
+    return new Schedule( new Random( seed * 31 + threadIndex ) );
+  }
+
+  class Schedule {
+    private final Random random;
+
+    private Schedule( Random random ) {
+      this.random = random;
+    }
+
+    /**
+     * Returns the next step of this schedule.
+     */
+    Step next() {
+      // Workloads without weights draw as they did before weights were
+      // introduced, so that their schedules stay the same for a seed.
+      final int queryIndex =
+          mix.isUniform()
+            ? random.nextInt( mix.size() )
+            : mix.pick( random.nextDouble() );
+      final boolean cancel = random.nextDouble() < cancelRatio;
+      return new Step( queryIndex, cancel ? cancelAfterMillis : -1 );
+    }
+  }
+
+  static class Step {
+    final int queryIndex;
+    /** Milliseconds after which to cancel the query, or -1 to let it run. */
+    final int cancelAfterMillis;
+
+    Step( int queryIndex, int cancelAfterMillis ) {
+      this.queryIndex = queryIndex;
+      this.cancelAfterMillis = cancelAfterMillis;
+    }
+  }
+}
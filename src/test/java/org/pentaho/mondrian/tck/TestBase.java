@@ -23,24 +23,108 @@ package org.pentaho.mondrian.tck;
 
 import mondrian.spi.Dialect;
 
+import org.junit.Assume;
 import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
 
 public abstract class TestBase {
 
   static Dialect dialect;
 
+  /**
+   * Records the benchmark results of each test method under its name. Every
+   * suite extends this class, so that no result is filed under another
+   * suite's test.
+   */
+  @Rule
+  public final TestWatcher benchmarkTestName = new TestWatcher() {
+    @Override
+    protected void starting( Description description ) {
+      BenchmarkResults.instance().setCurrentTest(
+          description.getTestClass().getSimpleName() + "." + description.getMethodName() );
+    }
+
+    @Override
+    protected void finished( Description description ) {
+      BenchmarkResults.instance().setCurrentTest( null );
+    }
+  };
+
+  /**
+   * Writes the benchmark results once the tests of a class are done, and
+   * fails if they regressed compared to the baseline.
+   */
+  @ClassRule
+  public static final TestRule benchmarkResults = new TestRule() {
+    @Override
+    public Statement apply( final Statement base, final Description description ) {
+      return new Statement() {
+        @Override
+        public void evaluate() throws Throwable {
+          try {
+            base.evaluate();
+          } finally {
+            BenchmarkResults.instance().setCurrentTest( null );
+          }
+          BenchmarkComparator.writeAndCompare( description.getTestClass().getSimpleName() + "." );
+        }
+      };
+    }
+  };
+
   @BeforeClass
   public static void setUp() throws Exception {
     dialect = SqlContext.defaultContext().getDialect();
   }
 
+  /**
+   * Skips the calling test unless benchmark.suites is set. Benchmark suites
+   * measure the driver rather than check its compliance, and take long.
+   */
+  static void assumeBenchmarkSuites() {
+    Assume.assumeTrue( Boolean.parseBoolean( Context.testProperties.getProperty( "benchmark.suites" ) ) );
+  }
+
   static class QueryAndResult {
     final String query;
     final String result;
+    final String digest;
+    final String catalog;
+    final int weight;
+    final int thinkTimeMillis;
+    final int slaMillis;
 
     QueryAndResult( String query, String result ) {
+      this( query, result, null, FoodMartCatalogs.FLAT_WITH_FEW_DIMS, 1, 0, -1 );
+    }
+
+    /**
+     * @param digest Expected digest of the result, or null
+     * @param catalog The schema to run the query against
+     * @param weight Relative frequency of this query in a random mix
+     * @param thinkTimeMillis Pause of a simulated user after this query
+     * @param slaMillis Latency this query must not exceed, or -1
+     */
+    QueryAndResult(
+        String query,
+        String result,
+        String digest,
+        String catalog,
+        int weight,
+        int thinkTimeMillis,
+        int slaMillis ) {
       this.query = query;
       this.result = result;
+      this.digest = digest;
+      this.catalog = catalog;
+      this.weight = weight;
+      this.thinkTimeMillis = thinkTimeMillis;
+      this.slaMillis = slaMillis;
     }
   }
 
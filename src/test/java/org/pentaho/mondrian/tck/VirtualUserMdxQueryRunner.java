@@ -0,0 +1,234 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.pentaho.mondrian.tck.QueryStatistics.Outcome;
+import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
+
+/**
+ * Simulates thousands of analysts, each sending one MDX query after the
+ * other, as {@link ConcurrentValidatingMdxQueryRunner} does for a handful.
+ *
+ * <p>Each simulated user is a task rather than a dedicated thread. When the
+ * JVM supports virtual threads, every user runs on its own virtual thread.
+ * Otherwise users run on platform threads with a reduced stack size, which
+ * still allows a few thousand of them in a single JVM.
+ *
+ * <p>Since the users block in {@link MondrianContext#verify}, the number of
+ * queries actually executing is bounded by Mondrian's own thread pools
+ * rather than by the load generator. A {@link MondrianThreadPoolMonitor}
+ * samples those pools during the run to show which one saturates first.
+ */
+class VirtualUserMdxQueryRunner {
+  private static final Logger LOGGER = Logger.getLogger( VirtualUserMdxQueryRunner.class );
+  private static final long PLATFORM_THREAD_STACK_SIZE = 256 * 1024;
+
+  private final int numUsers;
+  private final long runTimeNanos;
+  private final boolean randomQueries;
+  private final boolean usePooling;
+  private final QueryAndResult[] mdxQueries;
+  private final WorkloadMix mix;
+  private final QueryStatistics statistics;
+  private final List<Throwable> exceptions = new CopyOnWriteArrayList<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final MondrianThreadPoolMonitor monitor = new MondrianThreadPoolMonitor( inFlight );
+  private boolean virtual;
+  private long elapsedMillis;
+
+  /**
+   * @param numUsers Number of simulated users
+   * @param runTimeInSeconds Running time
+   * @param randomQueries Whether to pick queries in random or in sequence
+   * @param queriesAndResults Array of pairs of query and expected result
+   */
+  VirtualUserMdxQueryRunner(
+      int numUsers,
+      int runTimeInSeconds,
+      boolean randomQueries,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults ) {
+    this.numUsers = numUsers;
+    this.runTimeNanos = TimeUnit.SECONDS.toNanos( runTimeInSeconds );
+    this.randomQueries = randomQueries;
+    this.usePooling = usePooling;
+    this.mdxQueries = queriesAndResults;
+    this.mix = new WorkloadMix( queriesAndResults );
+    this.statistics = new QueryStatistics( queriesAndResults );
+  }
+
+  void run() throws InterruptedException {
+    final ExecutorService executor = newUserExecutor();
+    final long startTime = System.nanoTime();
+    monitor.start( 100 );
+    try {
+      for ( int user = 0; user < numUsers; user++ ) {
+        executor.execute( newUser( user, startTime ) );
+      }
+    } finally {
+      executor.shutdown();
+      if ( !executor.awaitTermination( runTimeNanos * 2, TimeUnit.NANOSECONDS ) ) {
+        executor.shutdownNow();
+        exceptions.add( new Exception( "Simulated users did not stop in time." ) );
+      }
+      monitor.stop();
+      elapsedMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startTime );
+    }
+    statistics.publish( "users", elapsedMillis );
+  }
+
+  private Runnable newUser( final int user, final long startTime ) {
+    return new Runnable() {
+      public void run() {
+        int runCount = 0;
+        while ( System.nanoTime() - startTime < runTimeNanos ) {
+          final int queryIndex =
+              randomQueries
+                ? mix.pick( Math.random() )
+                : ( user + runCount ) % mdxQueries.length;
+          runCount++;
+          inFlight.incrementAndGet();
+          final long queryStart = System.nanoTime();
+          try {
+            final Outcome outcome =
+                ConcurrentValidatingMdxQueryRunner.runQuery( mdxQueries[queryIndex], usePooling );
+            statistics.record( queryIndex, outcome, System.nanoTime() - queryStart );
+          } catch ( Throwable e ) {
+            statistics.record( queryIndex, Outcome.FAILURE, System.nanoTime() - queryStart );
+            exceptions.add(
+                new Exception(
+                  "Exception occurred in iteration " + runCount
+                  + " of user " + user,
+                  e ) );
+          } finally {
+            inFlight.decrementAndGet();
+          }
+          try {
+            ConcurrentValidatingMdxQueryRunner.thinkAfter( mdxQueries[queryIndex] );
+          } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns an executor starting a virtual thread per task if the JVM
+   * supports it, or a platform thread with a small stack otherwise.
+   */
+  private ExecutorService newUserExecutor() {
+    try {
+      final ExecutorService executor =
+          (ExecutorService) Executors.class
+            .getMethod( "newVirtualThreadPerTaskExecutor" )
+            .invoke( null );
+      virtual = true;
+      return executor;
+    } catch ( ReflectiveOperationException | UnsupportedOperationException e ) {
+      LOGGER.info( "Virtual threads are not available. Simulating users on platform threads." );
+    }
+    final AtomicInteger threadCount = new AtomicInteger();
+    return Executors.newCachedThreadPool(
+        new ThreadFactory() {
+          public Thread newThread( Runnable r ) {
+            final Thread t =
+                new Thread(
+                  null,
+                  r,
+                  "VirtualUserMdxQueryRunner-" + threadCount.incrementAndGet(),
+                  PLATFORM_THREAD_STACK_SIZE );
+            t.setDaemon( true );
+            return t;
+          }
+        } );
+  }
+
+  /**
+   * Prints result of this test run.
+   */
+  void report() {
+    LOGGER.info(
+        MessageFormat.format(
+            " {0} simulated users on {1} threads",
+            numUsers,
+            virtual ? "virtual" : "platform" ) );
+    statistics.report( LOGGER, elapsedMillis );
+    monitor.report();
+    for ( Throwable throwable : exceptions ) {
+      LOGGER.error( throwable );
+    }
+  }
+
+  QueryStatistics getStatistics() {
+    return statistics;
+  }
+
+  MondrianThreadPoolMonitor getMonitor() {
+    return monitor;
+  }
+
+  List<Throwable> getExceptions() {
+    return exceptions;
+  }
+
+  /**
+   * Creates and runs a test with the given number of simulated users.
+   *
+   * @param numUsers Number of simulated users
+   * @param runTimeInSeconds Running Time
+   * @param randomQueries Whether to pick queries in random or in sequence
+   * @param printReport Whether to print report
+   * @param queriesAndResults Array of pairs of query and expected result
+   * @return The list of failures
+   */
+  static List<Throwable> runTest(
+      int numUsers,
+      int runTimeInSeconds,
+      boolean randomQueries,
+      boolean printReport,
+      boolean usePooling,
+      QueryAndResult[] queriesAndResults ) throws Exception {
+
+    ConcurrentValidatingMdxQueryRunner.flushSchemaCaches( queriesAndResults, usePooling );
+
+    VirtualUserMdxQueryRunner runner =
+        new VirtualUserMdxQueryRunner(
+          numUsers, runTimeInSeconds, randomQueries, usePooling, queriesAndResults );
+    runner.run();
+    if ( printReport ) {
+      runner.report();
+    }
+    return runner.getExceptions();
+  }
+}
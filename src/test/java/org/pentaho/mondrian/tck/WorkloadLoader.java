@@ -0,0 +1,188 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Reads a workload mix from a text file.
+ *
+ * <p>Queries are separated by a line containing only <code>---</code>.
+ * Each query is described by keys at the start of a line, followed by a
+ * colon. Lines starting with <code>#</code> are comments.
+ *
+ * <ul>
+ *   <li><code>mdx</code> The MDX query, on the following lines (mandatory)</li>
+ *   <li><code>result</code> The expected result, on the following lines</li>
+ *   <li><code>digest</code> The expected {@link CellSetDigest} of the result</li>
+ *   <li><code>catalog</code> The name of a constant of {@link FoodMartCatalogs},
+ *       or the path of a schema file, relative to the workload file.
+ *       Defaults to FLAT_WITH_FEW_DIMS.</li>
+ *   <li><code>weight</code> Relative frequency of the query. Defaults to 1.</li>
+ *   <li><code>thinkTime</code> Milliseconds a user waits after the query. Defaults to 0.</li>
+ *   <li><code>sla</code> Latency in milliseconds the query must not exceed.</li>
+ * </ul>
+ *
+ * <p>Example:
+ * <pre>
+ * catalog: STAR_WITH_STORE
+ * weight: 3
+ * sla: 2000
+ * mdx:
+ * select {[Measures].[Unit Sales]} on 0
+ * from [Sales]
+ * result:
+ * Axis #0:
+ * {}
+ * Axis #1:
+ * {[Measures].[Unit Sales]}
+ * Row #0: 266,773
+ * ---
+ * </pre>
+ */
+class WorkloadLoader {
+  private static final String SEPARATOR = "---";
+  private static final List<String> MULTI_LINE_KEYS = Arrays.asList( "mdx", "result" );
+  private static final List<String> KEYS =
+      Arrays.asList( "mdx", "result", "digest", "catalog", "weight", "thinkTime", "sla" );
+
+  private WorkloadLoader() {
+  }
+
+  static QueryAndResult[] load( Path file ) throws IOException {
+    final List<QueryAndResult> queries = new ArrayList<>();
+    Map<String, List<String>> entry = new HashMap<>();
+    List<String> multiLineValue = null;
+    int lineNumber = 0;
+    for ( String line : Files.readAllLines( file, Charset.forName( "UTF-8" ) ) ) {
+      lineNumber++;
+      if ( line.startsWith( "#" ) ) {
+        continue;
+      }
+      if ( line.trim().equals( SEPARATOR ) ) {
+        if ( !entry.isEmpty() ) {
+          queries.add( toQuery( file, entry, lineNumber ) );
+        }
+        entry = new HashMap<>();
+        multiLineValue = null;
+        continue;
+      }
+      final String key = keyOf( line );
+      if ( key != null ) {
+        final List<String> value = new ArrayList<>();
+        final String inline = line.substring( line.indexOf( ':' ) + 1 ).trim();
+        if ( !inline.isEmpty() ) {
+          value.add( inline );
+        }
+        entry.put( key, value );
+        multiLineValue = MULTI_LINE_KEYS.contains( key ) ? value : null;
+      } else if ( multiLineValue != null ) {
+        multiLineValue.add( line );
+      } else if ( !line.trim().isEmpty() ) {
+        throw new IOException( file + ":" + lineNumber + ": unexpected line: " + line );
+      }
+    }
+    if ( !entry.isEmpty() ) {
+      queries.add( toQuery( file, entry, lineNumber ) );
+    }
+    return queries.toArray( new QueryAndResult[queries.size()] );
+  }
+
+  private static String keyOf( String line ) {
+    final int colon = line.indexOf( ':' );
+    if ( colon < 0 ) {
+      return null;
+    }
+    final String key = line.substring( 0, colon );
+    return KEYS.contains( key ) ? key : null;
+  }
+
+  private static QueryAndResult toQuery(
+      Path file, Map<String, List<String>> entry, int lineNumber ) throws IOException {
+    final String mdx = get( entry, "mdx", null );
+    if ( mdx == null ) {
+      throw new IOException( file + ":" + lineNumber + ": query has no mdx" );
+    }
+    try {
+      return new QueryAndResult(
+          mdx,
+          result( entry.get( "result" ) ),
+          get( entry, "digest", null ),
+          catalog( file, get( entry, "catalog", "FLAT_WITH_FEW_DIMS" ) ),
+          Integer.parseInt( get( entry, "weight", "1" ) ),
+          Integer.parseInt( get( entry, "thinkTime", "0" ) ),
+          Integer.parseInt( get( entry, "sla", "-1" ) ) );
+    } catch ( NumberFormatException e ) {
+      throw new IOException( file + ":" + lineNumber + ": invalid number", e );
+    }
+  }
+
+  private static String get( Map<String, List<String>> entry, String key, String defaultValue ) {
+    final List<String> lines = entry.get( key );
+    if ( lines == null ) {
+      return defaultValue;
+    }
+    final String value = Joiner.on( '\n' ).join( lines ).trim();
+    return value.isEmpty() ? defaultValue : value;
+  }
+
+  /**
+   * Formats the expected result the way {@link MondrianExpectation}
+   * compares it, each line ending with a line feed.
+   */
+  private static String result( List<String> lines ) {
+    if ( lines == null ) {
+      return null;
+    }
+    final StringBuilder result = new StringBuilder();
+    for ( String line : lines ) {
+      result.append( line ).append( '\n' );
+    }
+    final String value = result.toString().replaceAll( "\\s+$", "" );
+    return value.isEmpty() ? null : value + '\n';
+  }
+
+  private static String catalog( Path file, String catalog ) throws IOException {
+    try {
+      final Field field = FoodMartCatalogs.class.getField( catalog );
+      return (String) field.get( null );
+    } catch ( NoSuchFieldException e ) {
+      final Path schema = file.toAbsolutePath().getParent().resolve( catalog );
+      return new String( Files.readAllBytes( schema ), Charset.forName( "UTF-8" ) );
+    } catch ( IllegalAccessException e ) {
+      throw new IOException( e );
+    }
+  }
+}
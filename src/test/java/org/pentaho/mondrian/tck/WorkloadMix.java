@@ -0,0 +1,85 @@
+/*******************************************************************************
+ *
+ * Pentaho Mondrian Test Compatibility Kit
+ *
+ * Copyright (C) 2013-2014 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.mondrian.tck;
+
+import java.util.Arrays;
+
+import org.pentaho.mondrian.tck.TestBase.QueryAndResult;
+
+/**
+ * Picks queries at random, each one in proportion to its
+ * {@link QueryAndResult#weight}.
+ */
+class WorkloadMix {
+  private final long[] cumulativeWeights;
+  private final boolean uniform;
+
+  WorkloadMix( QueryAndResult[] queriesAndResults ) {
+    cumulativeWeights = new long[queriesAndResults.length];
+    long total = 0;
+    boolean uniform = true;
+    for ( int i = 0; i < queriesAndResults.length; i++ ) {
+      if ( queriesAndResults[i].weight < 0 ) {
+        throw new IllegalArgumentException(
+            "Weight of query #" + i + " is negative: " + queriesAndResults[i].weight );
+      }
+      total += queriesAndResults[i].weight;
+      cumulativeWeights[i] = total;
+      uniform &= queriesAndResults[i].weight == queriesAndResults[0].weight;
+    }
+    this.uniform = uniform;
+    if ( total == 0 ) {
+      throw new IllegalArgumentException( "The workload has no query with a positive weight." );
+    }
+  }
+
+  /**
+   * Whether all the queries have the same weight, and thus the same
+   * chance to be picked.
+   */
+  boolean isUniform() {
+    return uniform;
+  }
+
+  int size() {
+    return cumulativeWeights.length;
+  }
+
+  /**
+   * Returns the index of a query.
+   * @param random A random number between 0 inclusive and 1 exclusive.
+   */
+  int pick( double random ) {
+    final long total = cumulativeWeights[cumulativeWeights.length - 1];
+    final long target = (long) ( random * total );
+    int index = Arrays.binarySearch( cumulativeWeights, target + 1 );
+    if ( index < 0 ) {
+      index = -index - 1;
+    }
+    // Skip queries with no weight, which share the cumulative weight of
+    // the query before them.
+    while ( index > 0 && cumulativeWeights[index - 1] == cumulativeWeights[index] ) {
+      index--;
+    }
+    return index;
+  }
+}